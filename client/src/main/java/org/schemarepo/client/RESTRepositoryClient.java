@@ -39,6 +39,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.schemarepo.BaseRepository;
+import org.schemarepo.ReadConsistency;
 import org.schemarepo.RepositoryUtil;
 import org.schemarepo.SchemaEntry;
 import org.schemarepo.SchemaValidationException;
@@ -221,11 +222,17 @@ public class RESTRepositoryClient extends BaseRepository implements RepositoryCl
 
     @Override
     public SchemaEntry lookupBySchema(String schema) {
+      return lookupBySchema(schema, ReadConsistency.SESSION);
+    }
+
+    @Override
+    public SchemaEntry lookupBySchema(String schema, ReadConsistency consistency) {
       RepositoryUtil.validateSchemaOrSubject(schema);
       String path = getName() + "/schema";
       SchemaEntry schemaEntry = null;
       try {
-        String schemaId = webResource.path(path).type(MediaType.TEXT_PLAIN_TYPE).post(String.class, schema);
+        String schemaId = withConsistency(webResource.path(path), consistency)
+            .type(MediaType.TEXT_PLAIN_TYPE).post(String.class, schema);
         schemaEntry = new SchemaEntry(schemaId, schema);
       } catch (RuntimeException e) {
         handleException(e, format("Failed to locate schema %s in subject %s", schema, getName()), true);
@@ -235,11 +242,16 @@ public class RESTRepositoryClient extends BaseRepository implements RepositoryCl
 
     @Override
     public SchemaEntry lookupById(String schemaId) {
+      return lookupById(schemaId, ReadConsistency.SESSION);
+    }
+
+    @Override
+    public SchemaEntry lookupById(String schemaId, ReadConsistency consistency) {
       RepositoryUtil.validateSchemaOrSubject(schemaId);
       String path = getName() + "/id/" + schemaId;
       SchemaEntry schemaEntry = null;
       try {
-        String schema = webResource.path(path).get(String.class);
+        String schema = withConsistency(webResource.path(path), consistency).get(String.class);
         schemaEntry = new SchemaEntry(schemaId, schema);
       } catch (RuntimeException e) {
         handleException(e, format("Failed to locate schema with ID %s in subject %s", schemaId, getName()), true);
@@ -249,10 +261,15 @@ public class RESTRepositoryClient extends BaseRepository implements RepositoryCl
 
     @Override
     public SchemaEntry latest() {
+      return latest(ReadConsistency.SESSION);
+    }
+
+    @Override
+    public SchemaEntry latest(ReadConsistency consistency) {
       String path = getName() + "/latest";
       SchemaEntry schemaEntry = null;
       try {
-        String entryStr = webResource.path(path).get(String.class);
+        String entryStr = withConsistency(webResource.path(path), consistency).get(String.class);
         schemaEntry = new SchemaEntry(entryStr);
       } catch (RuntimeException e) {
         handleException(e, format("Failed to locate latest schema in subject %s", getName()), true);
@@ -262,10 +279,15 @@ public class RESTRepositoryClient extends BaseRepository implements RepositoryCl
 
     @Override
     public Iterable<SchemaEntry> allEntries() {
+      return allEntries(ReadConsistency.SESSION);
+    }
+
+    @Override
+    public Iterable<SchemaEntry> allEntries(ReadConsistency consistency) {
       String path = getName() + "/all";
       Iterable<SchemaEntry> entries = Collections.emptyList();
       try {
-        String entriesStr = webResource.path(path)
+        String entriesStr = withConsistency(webResource.path(path), consistency)
                 .accept(MediaType.APPLICATION_JSON)
                 .get(String.class);
         entries = jsonUtil.schemasFromJson(entriesStr);
@@ -290,6 +312,21 @@ public class RESTRepositoryClient extends BaseRepository implements RepositoryCl
   }
 
 
+  /**
+   * Adds the query parameters of the consistency of a read, none for session
+   * reads, which servers default to.
+   */
+  private static WebResource withConsistency(WebResource resource, ReadConsistency consistency) {
+    if (consistency.getLevel() == ReadConsistency.Level.SESSION) {
+      return resource;
+    }
+    resource = resource.queryParam(ReadConsistency.PARAM, consistency.getLevel().getParamValue());
+    if (consistency.getLevel() == ReadConsistency.Level.BOUNDED_STALENESS) {
+      resource = resource.queryParam(ReadConsistency.MAX_AGE_PARAM, String.valueOf(consistency.getMaxAgeMillis()));
+    }
+    return resource;
+  }
+
   private void handleException(Exception ex, String msg, boolean resourceNotFoundExpected) {
     final ClientResponse.Status status = ex instanceof UniformInterfaceException ?
         ((UniformInterfaceException)ex).getResponse().getClientResponseStatus() : null;
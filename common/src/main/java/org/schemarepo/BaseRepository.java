@@ -44,6 +44,15 @@ public abstract class BaseRepository implements Repository {
     }
   }
 
+  /**
+   * Describes how the repository is degraded, if it is: still valid, but
+   * only able to serve some of its operations, for ex. reads from its caches.
+   * @return null if the repository is fully available
+   */
+  public String getDegradation() {
+    return null;
+  }
+
   @Override
   public void close() throws IOException {
     logger.info("Closing {}", this);
@@ -59,6 +68,15 @@ public abstract class BaseRepository implements Repository {
     return Collections.emptyMap();
   }
 
+  /**
+   * Expose runtime statistics, such as counters, as properties.
+   * <p>Remember to call <pre>super</pre> when overriding!</p>
+   * @return Map representing statistics; note that the actual implementation may be immutable
+   */
+  public Map<String, String> exposeStatistics() {
+    return Collections.emptyMap();
+  }
+
   @Override
   public String toString() {
     final StringBuilder builder = new StringBuilder().append(super.toString());
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.schemarepo.config.Config;
+
+/**
+ * A {@link BoundedCache} is an implementation of {@link RepositoryCache}
+ * that uses {@link InMemorySubjectCache} and {@link BoundedSchemaEntryCache},
+ * so that the schemas cached for all of the subjects together take no more
+ * than a configured number of bytes. Subjects themselves are small, and are
+ * all cached.
+ */
+public class BoundedCache extends RepositoryCache {
+
+  private final BoundedSchemaEntryCache.Factory entries;
+
+  public BoundedCache(Long maxBytes) {
+    this(maxBytes, Long.valueOf(Config.getDefault(Config.CACHE_NEGATIVE_TTL)));
+  }
+
+  @Inject
+  public BoundedCache(@Named(Config.CACHE_MAX_BYTES) Long maxBytes,
+                      @Named(Config.CACHE_NEGATIVE_TTL) Long negativeResultTtlMillis) {
+    this(new BoundedSchemaEntryCache.Factory(maxBytes), negativeResultTtlMillis);
+  }
+
+  private BoundedCache(BoundedSchemaEntryCache.Factory entries, long negativeResultTtlMillis) {
+    super(new InMemorySubjectCache(), entries, negativeResultTtlMillis);
+    this.entries = entries;
+  }
+
+  @Override
+  public Map<String, String> exposeStatistics() {
+    return entries.exposeStatistics();
+  }
+
+}
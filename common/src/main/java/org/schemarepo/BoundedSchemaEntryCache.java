@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link SchemaEntryCache} whose entries count against a budget of bytes
+ * shared with all of the caches created by the same {@link Factory}, that is
+ * with the other subjects of a {@link BoundedCache}.
+ * <br/>
+ * Entries are evicted with the CLOCK policy, an approximation of LRU: a
+ * lookup only flags the entry it finds as referenced, without taking any
+ * lock, and eviction, which happens when an entry is added over the budget,
+ * goes around the entries in the order they were added, giving those which
+ * are flagged another round and evicting the first which is not.
+ * <br/>
+ * Evicted entries are merely looked up from the {@link Subject} again, where
+ * the mapping between a schema and its id never changes.
+ */
+public class BoundedSchemaEntryCache implements SchemaEntryCache {
+
+  // the maps, the node and the id, roughly
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final Factory factory;
+  private final ConcurrentHashMap<String, Node> schemaToNode =
+      new ConcurrentHashMap<String, Node>();
+  private final ConcurrentHashMap<String, Node> idToNode =
+      new ConcurrentHashMap<String, Node>();
+
+  private BoundedSchemaEntryCache(Factory factory) {
+    this.factory = factory;
+  }
+
+  private static final class Node {
+    private final BoundedSchemaEntryCache owner;
+    private final SchemaEntry entry;
+    private final long weight;
+    private volatile boolean referenced;
+
+    private Node(BoundedSchemaEntryCache owner, SchemaEntry entry) {
+      this.owner = owner;
+      this.entry = entry;
+      // Strings take two bytes per char
+      this.weight = 2L * (entry.getSchema().length() + entry.getId().length()) + ENTRY_OVERHEAD;
+    }
+  }
+
+  @Override
+  public SchemaEntry lookupBySchema(String schema) {
+    return hit(schemaToNode.get(schema));
+  }
+
+  @Override
+  public SchemaEntry lookupById(String id) {
+    return hit(idToNode.get(id));
+  }
+
+  private SchemaEntry hit(Node node) {
+    if (node == null) {
+      factory.misses.incrementAndGet();
+      return null;
+    }
+    node.referenced = true;
+    factory.hits.incrementAndGet();
+    return node.entry;
+  }
+
+  @Override
+  public SchemaEntry add(SchemaEntry entry) {
+    if (null == entry) {
+      return entry;
+    }
+    Node prior = schemaToNode.get(entry.getSchema());
+    if (null != prior) {
+      prior.referenced = true;
+      return prior.entry;
+    }
+    return factory.add(new Node(this, entry));
+  }
+
+  /**
+   * Creates the caches of the subjects of a {@link BoundedCache}, and holds
+   * the budget they share.
+   */
+  public static class Factory implements SchemaEntryCache.Factory {
+    private final long maxBytes;
+    // the clock, guarded by this factory
+    private final ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes the number of bytes of the schemas which may be cached,
+     * across all of the caches created by this factory
+     */
+    public Factory(long maxBytes) {
+      if (maxBytes < 0) {
+        throw new IllegalArgumentException("Negative cache size: " + maxBytes);
+      }
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public SchemaEntryCache createSchemaEntryCache() {
+      return new BoundedSchemaEntryCache(this);
+    }
+
+    private synchronized SchemaEntry add(Node node) {
+      BoundedSchemaEntryCache owner = node.owner;
+      Node prior = owner.schemaToNode.putIfAbsent(node.entry.getSchema(), node);
+      if (null != prior) {
+        return prior.entry;
+      }
+      owner.idToNode.put(node.entry.getId(), node);
+      nodes.addLast(node);
+      bytes += node.weight;
+      while (bytes > maxBytes && !nodes.isEmpty()) {
+        Node candidate = nodes.pollFirst();
+        if (candidate.referenced) {
+          candidate.referenced = false;
+          nodes.addLast(candidate);
+        } else {
+          evict(candidate);
+        }
+      }
+      return node.entry;
+    }
+
+    private void evict(Node node) {
+      BoundedSchemaEntryCache owner = node.owner;
+      owner.schemaToNode.remove(node.entry.getSchema(), node);
+      owner.idToNode.remove(node.entry.getId(), node);
+      bytes -= node.weight;
+      evictions.incrementAndGet();
+    }
+
+    public Map<String, String> exposeStatistics() {
+      final Map<String, String> statistics = new LinkedHashMap<String, String>();
+      synchronized (this) {
+        statistics.put("cache.entries", String.valueOf(nodes.size()));
+        statistics.put("cache.bytes", String.valueOf(bytes));
+      }
+      statistics.put("cache.max-bytes", String.valueOf(maxBytes));
+      statistics.put("cache.hits", String.valueOf(hits.get()));
+      statistics.put("cache.misses", String.valueOf(misses.get()));
+      statistics.put("cache.evictions", String.valueOf(evictions.get()));
+      return statistics;
+    }
+  }
+
+}
@@ -37,7 +37,8 @@ import javax.inject.Inject;
  * implementation of a repository.
  * It cannot cache the entire list of subjects since the list is mutable.
  * Similarly, a cached subject cannot cache the list of schemas, the subject configuration,
- * or the latest() schema because those are mutable.
+ * or the latest() schema because those are mutable. The latest schema is only served from
+ * the cache to the reads which accept a bounded staleness, see {@link ReadConsistency}.
  *
  */
 public class CacheRepository extends DelegatingRepository {
@@ -92,4 +93,11 @@ public class CacheRepository extends DelegatingRepository {
     return properties;
   }
 
+  @Override
+  public Map<String, String> exposeStatistics() {
+    final Map<String, String> statistics = new LinkedHashMap<String, String>(super.exposeStatistics());
+    statistics.putAll(cache.exposeStatistics());
+    return statistics;
+  }
+
 }
@@ -43,6 +43,14 @@ public abstract class DelegatingRepository extends BaseRepository {
     }
   }
 
+  @Override
+  public String getDegradation() {
+    if (repo instanceof BaseRepository) {
+      return ((BaseRepository)repo).getDegradation();
+    }
+    return null;
+  }
+
   @Override
   public Subject register(final String subjectName, final SubjectConfig config) {
     return repo.register(subjectName, config);
@@ -70,4 +78,13 @@ public abstract class DelegatingRepository extends BaseRepository {
     return properties;
   }
 
+  @Override
+  public Map<String, String> exposeStatistics() {
+    final Map<String, String> statistics = new LinkedHashMap<String, String>(super.exposeStatistics());
+    if (repo instanceof BaseRepository) {
+      statistics.putAll(((BaseRepository)repo).exposeStatistics());
+    }
+    return statistics;
+  }
+
 }
@@ -18,6 +18,7 @@
 
 package org.schemarepo;
 
+import java.nio.ByteBuffer;
 
 /**
  * A {@link DelegatingSubject} is a Subject that delegates work to an underlying
@@ -58,6 +59,11 @@ public abstract class DelegatingSubject extends Subject {
     return delegate.lookupById(id);
   }
 
+  @Override
+  public ByteBuffer lookupSchemaBytesById(String id) {
+    return delegate.lookupSchemaBytesById(id);
+  }
+
   @Override
   public SchemaEntry latest() {
     return delegate.latest();
@@ -68,6 +74,26 @@ public abstract class DelegatingSubject extends Subject {
     return delegate.allEntries();
   }
 
+  @Override
+  public SchemaEntry lookupBySchema(String schema, ReadConsistency consistency) {
+    return delegate.lookupBySchema(schema, consistency);
+  }
+
+  @Override
+  public SchemaEntry lookupById(String id, ReadConsistency consistency) {
+    return delegate.lookupById(id, consistency);
+  }
+
+  @Override
+  public SchemaEntry latest(ReadConsistency consistency) {
+    return delegate.latest(consistency);
+  }
+
+  @Override
+  public Iterable<SchemaEntry> allEntries(ReadConsistency consistency) {
+    return delegate.allEntries(consistency);
+  }
+
   @Override
   public SubjectConfig getConfig() {
     return delegate.getConfig();
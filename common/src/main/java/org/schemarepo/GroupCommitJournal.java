@@ -0,0 +1,332 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of opaque records which makes appends durable in
+ * groups: records are handed to a dedicated writer thread, which writes all
+ * of those appended since its last round at once and forces them to disk
+ * with a single call, so that every caller waiting for durability meanwhile
+ * is covered by the same force. <br/>
+ * <br/>
+ * Only the writer thread writes to the channel once the journal is read
+ * back, since an interrupted {@link FileChannel} operation closes the
+ * channel for every caller: interrupting a caller waiting for durability
+ * neither fails it nor the journal, it keeps waiting and its interrupt
+ * status is restored. <br/>
+ * <br/>
+ * Each record is framed by its 4 byte length and a 4 byte CRC-32 of its
+ * content, so that a record torn by a crash is detected and dropped when the
+ * journal is read back.
+ */
+final class GroupCommitJournal implements Closeable {
+
+  private static final int HEADER_SIZE = 8;
+
+  private final File file;
+  private final FileChannel channel;
+  private final Thread writer;
+
+  private final Object lock = new Object();
+  // framed records appended but not written yet, in order
+  private List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+  // sequence number of the last record appended, and of the last one forced to disk
+  private long appended = 0;
+  private long durable = 0;
+  // bytes in the journal, including the pending records
+  private long size = 0;
+  private boolean truncating = false;
+  private boolean closed = false;
+  // set once the writer exited, after which nothing pending gets written
+  private boolean stopped = false;
+  // set once the writer failed, after which the journal is unusable
+  private IOException failure;
+
+  GroupCommitJournal(File file) throws IOException {
+    this.file = file;
+    @SuppressWarnings("resource") // raf is closed when channel is closed
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    this.channel = raf.getChannel();
+    this.size = channel.size();
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "schema-repo-journal-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Reads back all of the intact records of the journal, in order, and
+   * positions the journal for appending right after the last one, discarding
+   * any torn record that follows it. Must be called before anything is
+   * appended.
+   */
+  List<byte[]> readRecords() throws IOException {
+    synchronized (lock) {
+      List<byte[]> records = new ArrayList<byte[]>();
+      long position = 0;
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (position + HEADER_SIZE <= size) {
+        header.clear();
+        readFully(header, position);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length < 0 || position + HEADER_SIZE + length > size) {
+          break;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(body, position + HEADER_SIZE);
+        if (crc != crc(body.array())) {
+          break;
+        }
+        records.add(body.array());
+        position += HEADER_SIZE + length;
+      }
+      channel.truncate(position);
+      channel.position(position);
+      size = position;
+      return records;
+    }
+  }
+
+  private void readFully(ByteBuffer buf, long position) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) {
+        throw new IOException("Unexpected end of journal " + file.getAbsolutePath());
+      }
+    }
+  }
+
+  private static int crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Appends a record without waiting for it to be written.
+   *
+   * @return the sequence number to pass to {@link #awaitDurable(long)}
+   */
+  long append(byte[] record) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + record.length);
+    buf.putInt(record.length).putInt(crc(record)).put(record);
+    buf.flip();
+    synchronized (lock) {
+      checkUsable();
+      pending.add(buf);
+      size += buf.remaining();
+      lock.notifyAll();
+      return ++appended;
+    }
+  }
+
+  /**
+   * Blocks until the record with the provided sequence number is on disk.
+   * The wait is bounded by a single round of the writer, so it is not cut
+   * short by an interrupt, which is restored once it returns, nor by closing
+   * the journal, which writes the pending records first.
+   *
+   * @throws IOException if the writer failed or stopped before the record
+   * was forced, in which case it may or may not be on disk
+   */
+  void awaitDurable(long sequence) throws IOException {
+    boolean interrupted = false;
+    try {
+      synchronized (lock) {
+        while (durable < sequence) {
+          checkWriting();
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // for new appends and truncations, refused as soon as the journal is closed
+  private void checkUsable() throws IOException {
+    if (closed) {
+      throw new IOException("The journal " + file.getAbsolutePath() + " is closed");
+    }
+    checkWriting();
+  }
+
+  // for callers waiting for the writer, which still writes what is pending once closed
+  private void checkWriting() throws IOException {
+    if (failure != null) {
+      throw new IOException("Unable to write to journal " + file.getAbsolutePath(), failure);
+    }
+    if (stopped) {
+      throw new IOException("The journal " + file.getAbsolutePath() + " is closed");
+    }
+  }
+
+  /**
+   * The loop of the writer thread: writes and forces the pending records,
+   * and truncates the journal when asked to, until it is closed.
+   */
+  private void write() {
+    try {
+      writeUntilClosed();
+    } finally {
+      synchronized (lock) {
+        stopped = true;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void writeUntilClosed() {
+    while (true) {
+      List<ByteBuffer> records;
+      long target;
+      boolean truncate;
+      synchronized (lock) {
+        while (pending.isEmpty() && !truncating && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            // only closing the journal stops the writer
+          }
+        }
+        if (pending.isEmpty() && !truncating) {
+          return;
+        }
+        records = pending;
+        pending = new ArrayList<ByteBuffer>();
+        target = appended;
+        truncate = truncating;
+      }
+      try {
+        for (ByteBuffer buf : records) {
+          while (buf.hasRemaining()) {
+            channel.write(buf);
+          }
+        }
+        if (truncate) {
+          channel.truncate(0);
+          channel.position(0);
+          channel.force(true);
+        } else {
+          channel.force(false);
+        }
+        synchronized (lock) {
+          durable = target;
+          if (truncate) {
+            truncating = false;
+            size = 0;
+          }
+          lock.notifyAll();
+        }
+      } catch (IOException e) {
+        synchronized (lock) {
+          failure = e;
+          lock.notifyAll();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the current size of the journal in bytes
+   */
+  long size() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+  /**
+   * Discards every record of the journal, waiting for the writer to do so.
+   * The caller is responsible for making sure that the effects of those
+   * records are durable elsewhere, and that nothing is appended meanwhile.
+   */
+  void truncate() throws IOException {
+    boolean interrupted = false;
+    try {
+      synchronized (lock) {
+        checkUsable();
+        truncating = true;
+        lock.notifyAll();
+        while (truncating) {
+          checkWriting();
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Writes whatever is pending, stops the writer and closes the journal.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+  }
+
+}
@@ -17,14 +17,27 @@
  */
 
 package org.schemarepo;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.schemarepo.config.Config;
+
 /**
  * <p>
  * A {@link InMemoryCache} is an implementation of {@link RepositoryCache}
- * that uses {@link InMemorySubjectCache} and {@link InMemorySchemaEntryCache}
+ * that uses {@link InMemorySubjectCache} and {@link InMemorySchemaEntryCache},
+ * and, if configured to, caches the ids and schemas which were not found for a
+ * short time
  */
 public class InMemoryCache extends RepositoryCache {
   public InMemoryCache() {
-    super(new InMemorySubjectCache(), new InMemorySchemaEntryCache.Factory());
+    this(Long.valueOf(Config.getDefault(Config.CACHE_NEGATIVE_TTL)));
+  }
+
+  @Inject
+  public InMemoryCache(@Named(Config.CACHE_NEGATIVE_TTL) Long negativeResultTtlMillis) {
+    super(new InMemorySubjectCache(), new InMemorySchemaEntryCache.Factory(), negativeResultTtlMillis);
   }
 
 }
@@ -19,20 +19,34 @@
 package org.schemarepo;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * An unbounded in memory {@link SchemaEntryCache} that never evicts any values;
+ * <br/>
+ * Entries whose ids are integers, as the backends generate them, are indexed by
+ * id in an array, so that looking them up does not hash the id. Entries with
+ * other ids, and those far beyond the number of integral ids cached so far, are
+ * kept in a map, until the array grows large enough for them.
  */
 public class InMemorySchemaEntryCache implements SchemaEntryCache {
 
+  private static final int MIN_CAPACITY = 16;
+
   private final ConcurrentHashMap<String, SchemaEntry> schemaToEntry =
       new ConcurrentHashMap<String, SchemaEntry>();
+  // replaced by a larger copy when full, under the lock of this cache
+  private volatile AtomicReferenceArray<SchemaEntry> entriesById =
+      new AtomicReferenceArray<SchemaEntry>(MIN_CAPACITY);
+  // of the entries with integral ids, whether they are in the array or the map
+  private int integralCount = 0;
   private final ConcurrentHashMap<String, SchemaEntry> idToSchema =
       new ConcurrentHashMap<String, SchemaEntry>();
-  private final LinkedList<SchemaEntry> schemasInOrder =
-      new LinkedList<SchemaEntry>();
+  // oldest first, each entry once
+  private final List<SchemaEntry> schemasInOrder =
+      new ArrayList<SchemaEntry>();
 
   @Override
   public SchemaEntry lookupBySchema(String schema) {
@@ -41,26 +55,135 @@ public class InMemorySchemaEntryCache implements SchemaEntryCache {
 
   @Override
   public SchemaEntry lookupById(String id) {
-    return idToSchema.get(id);
+    int index = parseIndex(id);
+    if (index < 0) {
+      return idToSchema.isEmpty() ? null : idToSchema.get(id);
+    }
+    AtomicReferenceArray<SchemaEntry> byId = entriesById;
+    SchemaEntry entry = index < byId.length() ? byId.get(index) : null;
+    if (entry != null) {
+      return entry;
+    }
+    entry = idToSchema.isEmpty() ? null : idToSchema.get(id);
+    if (entry == null && byId != entriesById) {
+      // moved from the map to the array meanwhile
+      return lookupById(id);
+    }
+    return entry;
   }
 
   @Override
-  public synchronized SchemaEntry add(SchemaEntry entry) {
+  public SchemaEntry add(SchemaEntry entry) {
     if (null == entry) {
       return entry;
     }
+    // entries are added again each time all of those of a subject are listed
+    SchemaEntry prior = schemaToEntry.get(entry.getSchema());
+    if (null != prior) {
+      return prior;
+    }
+    return addNew(entry);
+  }
+
+  private synchronized SchemaEntry addNew(SchemaEntry entry) {
     SchemaEntry prior = schemaToEntry.putIfAbsent(entry.getSchema(), entry);
     if (null != prior) {
-      entry = prior;
+      return prior;
+    }
+    int index = parseIndex(entry.getId());
+    if (index >= 0) {
+      integralCount++;
     }
-    idToSchema.put(entry.getId(), entry);
-    schemasInOrder.push(entry);
+    // sparse ids would leave most of the array empty
+    if (index >= 0 && index < Math.max(MIN_CAPACITY, 2 * integralCount)) {
+      AtomicReferenceArray<SchemaEntry> byId = entriesById;
+      if (index >= byId.length()) {
+        byId = grow(byId, Math.max(index + 1, 2 * byId.length()));
+      }
+      byId.set(index, entry);
+    } else {
+      idToSchema.put(entry.getId(), entry);
+    }
+    // each time the number of integral ids doubles, more of the map may fit
+    if (index >= 0 && (integralCount & (integralCount - 1)) == 0 && !idToSchema.isEmpty()) {
+      grow(entriesById, entriesById.length());
+    }
+    schemasInOrder.add(entry);
     return entry;
   }
 
-  /** return all of the values in this cache **/
+  /**
+   * Replaces the array by a copy of at least the provided capacity, into
+   * which the entries kept in the map so far are moved if they are now dense
+   * enough, since entries are often added newest first, before the array is
+   * large enough for them. They are removed from the map once the copy is
+   * published, so that they are always found.
+   */
+  private AtomicReferenceArray<SchemaEntry> grow(AtomicReferenceArray<SchemaEntry> byId, int minCapacity) {
+    int capacity = minCapacity;
+    List<SchemaEntry> moved = new ArrayList<SchemaEntry>();
+    for (SchemaEntry entry : idToSchema.values()) {
+      int index = parseIndex(entry.getId());
+      if (index >= 0 && index < 2 * integralCount) {
+        capacity = Math.max(capacity, index + 1);
+        moved.add(entry);
+      }
+    }
+    if (capacity == byId.length() && moved.isEmpty()) {
+      return byId;
+    }
+    AtomicReferenceArray<SchemaEntry> larger = new AtomicReferenceArray<SchemaEntry>(capacity);
+    for (int i = 0; i < byId.length(); i++) {
+      larger.set(i, byId.get(i));
+    }
+    for (SchemaEntry entry : moved) {
+      larger.set(parseIndex(entry.getId()), entry);
+    }
+    entriesById = larger;
+    for (SchemaEntry entry : moved) {
+      idToSchema.remove(entry.getId());
+    }
+    return larger;
+  }
+
+  /**
+   * @return whether the entry with the provided id is indexed in the array
+   */
+  boolean isIndexedDensely(String id) {
+    int index = parseIndex(id);
+    AtomicReferenceArray<SchemaEntry> byId = entriesById;
+    return index >= 0 && index < byId.length() && byId.get(index) != null;
+  }
+
+  /**
+   * @return the index of the provided id in the array, or -1 if it is not a
+   * non-negative integer in its canonical form, which another id could not
+   * be confused with
+   */
+  private static int parseIndex(String id) {
+    int length = id.length();
+    // up to 9 digits cannot overflow
+    if (length == 0 || length > 9 || (length > 1 && id.charAt(0) == '0')) {
+      return -1;
+    }
+    int index = 0;
+    for (int i = 0; i < length; i++) {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      index = index * 10 + (c - '0');
+    }
+    return index;
+  }
+
+  /** return all of the values in this cache, most recently added first **/
   public synchronized Iterable<SchemaEntry> values() {
-    return new ArrayList<SchemaEntry>(schemasInOrder);
+    List<SchemaEntry> values = new ArrayList<SchemaEntry>(schemasInOrder.size());
+    for (int i = schemasInOrder.size() - 1; i >= 0; i--) {
+      values.add(schemasInOrder.get(i));
+    }
+    return values;
   }
 
   public static class Factory implements SchemaEntryCache.Factory {
@@ -19,28 +19,47 @@
 package org.schemarepo;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -54,7 +73,9 @@ import org.slf4j.LoggerFactory;
  * <br/>
  * The {@link Repository} stores all of its data in a single base directory.
  * Within this directory each {@link Subject} is represented by a nested
- * directory with the same name as the {@link Subject}. Within each
+ * directory with the same name as the {@link Subject}, either right under the
+ * base directory or, for repositories with very many subjects, two levels of
+ * hash buckets below it (see {@link Layout}). Within each
  * {@link Subject} directory there are three file types: <li>
  * A properties file named 'subject.properties' containing the configured
  * properties for the Subject. At this time, the only used property is
@@ -64,7 +85,20 @@ import org.slf4j.LoggerFactory;
  * order of schema registration for {@link Subject#latest()} and
  * {@link Subject#allEntries()}</li> <li>
  * One file per schema the contents of which are the schema encoded in UTF-8 and
- * the name of which is the schema id followed by the postfix '.schema'.</li>
+ * the name of which is the schema id followed by the postfix '.schema'. If
+ * deduplication is enabled, the file rather holds a reference to the schema in
+ * a store shared by all subjects under the '.blobs' directory, see
+ * {@link SchemaBlobStore}.</li>
+ * <br/>
+ * Subject directories are only listed when the repository is opened. Each
+ * subject is read and verified on first access, or sooner by a pool of
+ * background threads, so that startup time does not grow with the number of
+ * schemas in the repository. <br/>
+ * <br/>
+ * The state of every subject is also saved to a binary snapshot file named
+ * '.snapshot', periodically and when the repository is closed. A subject whose
+ * files have not been modified since they were saved is restored from the
+ * snapshot rather than by reading all of its schemas again.
  *
  */
 public class LocalFileSystemRepository extends AbstractBackendRepository {
@@ -75,10 +109,151 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
   private static final String SUBJECT_PROPERTIES = "subject.properties";
   private static final String SCHEMA_IDS = "schema_ids";
   private static final String SCHEMA_POSTFIX = ".schema";
+  private static final String JOURNAL = ".journal";
+  private static final String SNAPSHOT = ".snapshot";
+  private static final String SNAPSHOT_TMP = ".snapshot.tmp";
+  private static final String BLOBS = ".blobs";
+  private static final String LAYOUT = ".layout";
+  private static final String LAYOUT_MIGRATION = ".layout-migration";
+  private static final String LAYOUT_STAGING = ".layout-staging";
+  private static final int SNAPSHOT_MAGIC = 0x53525331; // "SRS1"
+  // schema files at least this large are mapped rather than read when served as bytes
+  private static final long MAP_THRESHOLD = 64 * 1024;
+  // how long closing waits for the background threads to stop
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+  static final byte JOURNAL_SUBJECT = 1;
+  static final byte JOURNAL_SCHEMA = 2;
+  // cancels the last record of the same subject and id, whose registration failed
+  static final byte JOURNAL_ABORT = 3;
+  // journal size beyond which the files it covers are forced to disk and it is emptied
+  private static final long CHECKPOINT_THRESHOLD = 16 * 1024 * 1024;
+
+  /**
+   * How a registration is made durable before it is acknowledged. Java 6
+   * cannot force a directory to disk, so in every mode the entries of newly
+   * created files, such as a new subject directory, a schema file or the
+   * journal itself, are only as durable as the file system makes them: most
+   * journaling file systems write them along with the data that was forced.
+   */
+  public enum Durability {
+    /** Nothing is forced to disk, flushing is left to the operating system. */
+    NONE,
+    /** Every file written by a registration is forced to disk. */
+    FSYNC,
+    /**
+     * Registrations are first recorded in a journal shared by all subjects,
+     * which is forced to disk once for all of the registrations that arrive
+     * concurrently. The journal is replayed at startup. It is created once
+     * and only truncated afterwards, which does not change its directory
+     * entry.
+     */
+    GROUP_COMMIT;
+
+    /**
+     * Parses "none", "fsync" or "group-commit", ignoring case.
+     */
+    public static Durability fromString(String value) {
+      return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+    }
+  }
+
+  /**
+   * Where subject directories are placed within the repository directory.
+   * The layout of a repository is recorded in its '.layout' file when it is
+   * created, a repository without one predates layouts and is flat. See
+   * {@link LocalFileSystemRepository#migrateLayout(String, String)} to change
+   * the layout of an existing repository.
+   */
+  public enum Layout {
+    /** Every subject directory is right under the repository directory. */
+    FLAT {
+      @Override
+      File subjectDir(File rootDir, String subjectName) {
+        return new File(rootDir, subjectName);
+      }
+
+      @Override
+      List<File> subjectDirs(File rootDir) {
+        return Arrays.asList(listDirs(rootDir, null));
+      }
+    },
+    /**
+     * Every subject directory is placed under two levels of buckets named
+     * after the first four hex digits of the fingerprint of the subject name,
+     * as in 'ab/cd/subject', so that no directory holds more than a few
+     * entries even with hundreds of thousands of subjects.
+     */
+    HASHED {
+      @Override
+      File subjectDir(File rootDir, String subjectName) {
+        String hash = String.format("%016x", RepositoryUtil.fingerprint64(subjectName));
+        File bucket = new File(new File(rootDir, hash.substring(0, 2)), hash.substring(2, 4));
+        return new File(bucket, subjectName);
+      }
+
+      @Override
+      List<File> subjectDirs(File rootDir) {
+        List<File> result = new ArrayList<File>();
+        for (File first : listDirs(rootDir, BUCKET)) {
+          for (File second : listDirs(first, BUCKET)) {
+            result.addAll(Arrays.asList(listDirs(second, null)));
+          }
+        }
+        return result;
+      }
+    };
+
+    private static final Pattern BUCKET = Pattern.compile("[0-9a-f]{2}");
+
+    abstract File subjectDir(File rootDir, String subjectName);
+
+    abstract List<File> subjectDirs(File rootDir);
+
+    private static File[] listDirs(File dir, final Pattern names) {
+      File[] result = dir.listFiles(new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+          return file.isDirectory() && !file.getName().startsWith(".")
+              && (names == null || names.matcher(file.getName()).matches());
+        }
+      });
+      return result == null ? new File[0] : result;
+    }
+
+    @Override
+    public String toString() {
+      return name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Parses "flat" or "hashed", ignoring case.
+     */
+    public static Layout fromString(String value) {
+      return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+    }
+  }
 
   private final File rootDir;
+  private final Layout layout;
+  private final FileBlobStore blobs;
   private final FileChannel lockChannel;
   private final FileLock fileLock;
+  private final ExecutorService loader;
+  // set as soon as the repository starts closing, for the background threads
+  // to stop, unlike closed which is only set once the lock is released
+  private volatile boolean closing;
+  private final Durability durability;
+  private final GroupCommitJournal journal;
+  // registrations hold the read lock, checkpoints take the write lock
+  private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+  // files written since the journal was last emptied
+  private final Set<File> dirtyFiles = Collections.synchronizedSet(new HashSet<File>());
+  // subjects from the snapshot which have not been loaded yet, and subjects loaded so far
+  private final Map<String, SavedSubject> savedSubjects = new ConcurrentHashMap<String, SavedSubject>();
+  private final Map<String, FileSubject> loadedSubjects = new ConcurrentHashMap<String, FileSubject>();
+  private final Object snapshotLock = new Object();
+  private volatile boolean changedSinceSnapshot = false;
+  private final ScheduledExecutorService snapshotWriter;
 
   /**
    * Create a LocalFileSystemRepository in the directory path provided. Locks a file
@@ -90,42 +265,682 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
    *
    * @param repoPath The path where to store the Repository's state
    */
+  public LocalFileSystemRepository(String repoPath, ValidatorFactory validators) {
+    this(repoPath, Config.getDefault(Config.LOCAL_FILE_SYSTEM_DURABILITY), validators);
+  }
+
+  /**
+   * Create a LocalFileSystemRepository in the directory path provided, making
+   * registrations durable as configured. A journal left behind by a previous
+   * run is always replayed, whatever the durability.
+   *
+   * @param repoPath The path where to store the Repository's state
+   * @param durability one of "none", "fsync" or "group-commit", see {@link Durability}
+   */
+  public LocalFileSystemRepository(String repoPath, String durability, ValidatorFactory validators) {
+    this(repoPath, durability,
+        Integer.valueOf(Config.getDefault(Config.LOCAL_FILE_SYSTEM_SNAPSHOT_INTERVAL)), validators);
+  }
+
+  /**
+   * Create a LocalFileSystemRepository in the directory path provided, making
+   * registrations durable as configured, and saving a snapshot of its state
+   * at the provided interval.
+   *
+   * @param repoPath The path where to store the Repository's state
+   * @param durability one of "none", "fsync" or "group-commit", see {@link Durability}
+   * @param snapshotInterval seconds between two snapshots, if anything changed
+   * in between, or 0 to only save a snapshot when the repository is closed
+   */
+  public LocalFileSystemRepository(String repoPath, String durability, Integer snapshotInterval,
+                                   ValidatorFactory validators) {
+    this(repoPath, durability, snapshotInterval,
+        Config.getDefault(Config.LOCAL_FILE_SYSTEM_LAYOUT), validators);
+  }
+
+  /**
+   * Create a LocalFileSystemRepository in the directory path provided, making
+   * registrations durable as configured, and saving a snapshot of its state
+   * at the provided interval.
+   *
+   * @param repoPath The path where to store the Repository's state
+   * @param durability one of "none", "fsync" or "group-commit", see {@link Durability}
+   * @param snapshotInterval seconds between two snapshots, if anything changed
+   * in between, or 0 to only save a snapshot when the repository is closed
+   * @param layout "flat" or "hashed", the {@link Layout} of the repository if
+   * it is created, an existing repository keeps the layout it was created with
+   */
+  public LocalFileSystemRepository(String repoPath, String durability, Integer snapshotInterval,
+                                   String layout, ValidatorFactory validators) {
+    this(repoPath, durability, snapshotInterval, layout,
+        Boolean.valueOf(Config.getDefault(Config.LOCAL_FILE_SYSTEM_DEDUPLICATE)), validators);
+  }
+
+  /**
+   * Create a LocalFileSystemRepository in the directory path provided, making
+   * registrations durable as configured, saving a snapshot of its state at the
+   * provided interval, and optionally storing schemas registered in several
+   * subjects only once.
+   *
+   * @param repoPath The path where to store the Repository's state
+   * @param durability one of "none", "fsync" or "group-commit", see {@link Durability}
+   * @param snapshotInterval seconds between two snapshots, if anything changed
+   * in between, or 0 to only save a snapshot when the repository is closed
+   * @param layout "flat" or "hashed", the {@link Layout} of the repository if
+   * it is created, an existing repository keeps the layout it was created with
+   * @param deduplicate whether new schemas are stored in a content-addressed
+   * store shared by all subjects, see {@link SchemaBlobStore}. Schemas already
+   * stored either way remain readable whatever the setting.
+   */
   @Inject
-  public LocalFileSystemRepository(@Named(Config.LOCAL_FILE_SYSTEM_PATH) String repoPath, ValidatorFactory validators) {
+  public LocalFileSystemRepository(@Named(Config.LOCAL_FILE_SYSTEM_PATH) String repoPath,
+                                   @Named(Config.LOCAL_FILE_SYSTEM_DURABILITY) String durability,
+                                   @Named(Config.LOCAL_FILE_SYSTEM_SNAPSHOT_INTERVAL) Integer snapshotInterval,
+                                   @Named(Config.LOCAL_FILE_SYSTEM_LAYOUT) String layout,
+                                   @Named(Config.LOCAL_FILE_SYSTEM_DEDUPLICATE) Boolean deduplicate,
+                                   ValidatorFactory validators) {
     super(validators);
+    this.durability = Durability.fromString(durability);
+    this.blobs = new FileBlobStore(deduplicate);
+    long start = System.currentTimeMillis();
     this.rootDir = new File(repoPath);
     if ((!rootDir.exists() && !rootDir.mkdirs()) || !rootDir.isDirectory()) {
       throw new java.lang.RuntimeException(
           "Unable to create repo directory, or not a directory: "
               + rootDir.getAbsolutePath());
     }
-    // lock repository
+    fileLock = lockRepository(rootDir);
+    lockChannel = fileLock.channel();
+    this.layout = openLayout(Layout.fromString(layout));
+    journal = openJournal();
+    long locked = System.currentTimeMillis();
+    // register lazy subject handles, and load them up in the background
+    savedSubjects.putAll(readSnapshot());
+    List<LazyFileSubject> subjects = loadSubjects(rootDir);
+    // forget the subjects whose directory was removed since the snapshot was saved
+    Set<String> listedNames = new HashSet<String>();
+    for (LazyFileSubject subject : subjects) {
+      listedNames.add(subject.getName());
+    }
+    if (savedSubjects.keySet().retainAll(listedNames)) {
+      changedSinceSnapshot = true;
+    }
+    long listed = System.currentTimeMillis();
+    loader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "schema-repo-subject-loader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    loadInBackground(subjects, listed);
+    snapshotWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "schema-repo-snapshot-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    if (snapshotInterval > 0) {
+      snapshotWriter.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          writeSnapshotIfChanged();
+        }
+      }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+    }
+    logger.info("Opened {} in {} ms ({} ms locking and replaying the journal, {} ms registering {} subjects, "
+        + "{} of them saved in the snapshot), subjects are being loaded in the background",
+        rootDir.getAbsolutePath(), listed - start, locked - start, listed - locked,
+        subjects.size(), savedSubjects.size());
+  }
+
+  private static FileLock lockRepository(File rootDir) {
     try {
       File lockfile = new File(rootDir, LOCKFILE);
       lockfile.createNewFile();
-      @SuppressWarnings("resource") // raf is closed when lockChannel is closed
+      @SuppressWarnings("resource") // raf is closed when the channel of the lock is closed
       RandomAccessFile raf = new RandomAccessFile(lockfile, "rw");
-      lockChannel = raf.getChannel();
-      fileLock = lockChannel.tryLock();
-      if (fileLock != null) {
+      FileLock lock = raf.getChannel().tryLock();
+      if (lock != null) {
         lockfile.deleteOnExit();
-      } else {
-        throw new IllegalStateException("Failed to lock file: "
-            + lockfile.getAbsolutePath());
+        return lock;
       }
+      raf.close();
+      throw new IllegalStateException("Failed to lock file: "
+          + lockfile.getAbsolutePath());
     } catch (IOException e) {
       throw new IllegalStateException("Unable to lock repository directory: "
           + rootDir.getAbsolutePath(), e);
     }
-    // eagerly load up subjects
-    loadSubjects(rootDir, subjectCache);
   }
 
-  private void loadSubjects(File repoDir, SubjectCache subjects) {
-    for (File file : repoDir.listFiles()) {
-      if (file.isDirectory()) {
-        subjects.add(new FileSubject(file));
+  private static void unlockRepository(FileLock lock) {
+    try {
+      lock.release();
+      lock.channel().close();
+    } catch (IOException e) {
+      // nothing to do here -- it was already released or closed
+    }
+  }
+
+  /**
+   * Reads the layout recorded in the repository directory, or records the
+   * configured one if the repository is new.
+   */
+  private Layout openLayout(Layout configured) {
+    if (new File(rootDir, LAYOUT_MIGRATION).exists()) {
+      throw new IllegalStateException("The layout migration of " + rootDir.getAbsolutePath()
+          + " was interrupted, complete it by running it again");
+    }
+    File layoutFile = new File(rootDir, LAYOUT);
+    Layout result;
+    if (layoutFile.exists()) {
+      result = readLayout(rootDir);
+    } else {
+      // subjects without a layout file were created before there was a choice
+      result = Layout.FLAT.subjectDirs(rootDir).isEmpty() ? configured : Layout.FLAT;
+      writeStringToFile(layoutFile, result.toString(), true);
+    }
+    if (result != configured) {
+      logger.warn("Using the {} layout of {} rather than the configured {} layout, see {}",
+          result, rootDir.getAbsolutePath(), configured, Config.LOCAL_FILE_SYSTEM_LAYOUT);
+    }
+    return result;
+  }
+
+  private static Layout readLayout(File rootDir) {
+    File layoutFile = new File(rootDir, LAYOUT);
+    if (!layoutFile.exists()) {
+      return Layout.FLAT;
+    }
+    Scanner s = null;
+    try {
+      s = new Scanner(layoutFile, "UTF-8");
+      return Layout.fromString(s.next());
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to read layout file: " + layoutFile.getAbsolutePath(), e);
+    } catch (RuntimeException e) {
+      throw new RuntimeException("Invalid layout file: " + layoutFile.getAbsolutePath(), e);
+    } finally {
+      if (s != null) {
+        s.close();
+      }
+    }
+  }
+
+  /**
+   * Moves every subject directory of the repository at the provided path to
+   * the provided layout. The repository must not be open, and any journal
+   * left behind by it is replayed first. A migration which is interrupted
+   * prevents the repository from being opened until it is run again to
+   * completion.
+   *
+   * @param repoPath The path where the Repository's state is stored
+   * @param layout "flat" or "hashed", see {@link Layout}
+   */
+  public static void migrateLayout(String repoPath, String layout) {
+    Layout target = Layout.fromString(layout);
+    File rootDir = new File(repoPath);
+    File marker = new File(rootDir, LAYOUT_MIGRATION);
+    if (!marker.exists()) {
+      // replays the journal, if any, so that no registration is left behind
+      new LocalFileSystemRepository(repoPath, Durability.NONE.name(), 0, layout,
+          new ValidatorFactory.Builder().build()).close();
+    }
+    FileLock lock = lockRepository(rootDir);
+    try {
+      Layout source = readLayout(rootDir);
+      if (source == target && !marker.exists()) {
+        return;
+      }
+      writeStringToFile(marker, target.toString(), true);
+      // subjects go through a staging directory, so that no subject can be
+      // mistaken for a bucket of the hashed layout or the other way around
+      File staging = new File(rootDir, LAYOUT_STAGING);
+      if (!staging.isDirectory() && !staging.mkdir()) {
+        throw new RuntimeException("Unable to create directory: " + staging.getAbsolutePath());
+      }
+      for (File dir : source.subjectDirs(rootDir)) {
+        // buckets already created by an interrupted migration have no id file
+        if (new File(dir, SCHEMA_IDS).exists()) {
+          move(dir, new File(staging, dir.getName()));
+        }
+      }
+      if (source == Layout.HASHED) {
+        for (File first : Layout.listDirs(rootDir, Layout.BUCKET)) {
+          for (File second : Layout.listDirs(first, Layout.BUCKET)) {
+            second.delete();
+          }
+          first.delete();
+        }
+      }
+      for (File dir : Layout.listDirs(staging, null)) {
+        move(dir, target.subjectDir(rootDir, dir.getName()));
+      }
+      staging.delete();
+      writeStringToFile(new File(rootDir, LAYOUT), target.toString(), true);
+      if (!marker.delete()) {
+        throw new RuntimeException("Unable to delete file: " + marker.getAbsolutePath());
+      }
+    } finally {
+      unlockRepository(lock);
+    }
+  }
+
+  private static void move(File from, File to) {
+    File parent = to.getParentFile();
+    if ((!parent.isDirectory() && !parent.mkdirs()) || !from.renameTo(to)) {
+      throw new RuntimeException("Unable to move " + from.getAbsolutePath()
+          + " to " + to.getAbsolutePath());
+    }
+  }
+
+  private File subjectDir(String subjectName) {
+    return layout.subjectDir(rootDir, subjectName);
+  }
+
+  private GroupCommitJournal openJournal() {
+    File journalFile = new File(rootDir, JOURNAL);
+    if (durability != Durability.GROUP_COMMIT && !journalFile.exists()) {
+      return null;
+    }
+    try {
+      GroupCommitJournal result = new GroupCommitJournal(journalFile);
+      replayJournal(result);
+      if (durability != Durability.GROUP_COMMIT) {
+        result.close();
+        if (!journalFile.delete()) {
+          logger.warn("Failed to delete the replayed journal {}", journalFile);
+        }
+        return null;
+      }
+      return result;
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to replay journal: " + journalFile.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Re-applies every journaled registration to the subject directories, but
+   * those which failed and were aborted. This is idempotent: the journal is
+   * only emptied once the files it covers have been forced to disk, so its
+   * records may already have been applied.
+   */
+  private void replayJournal(GroupCommitJournal journal) throws IOException {
+    List<byte[]> records = journal.readRecords();
+    List<JournalRecord> committed = new ArrayList<JournalRecord>();
+    for (byte[] bytes : records) {
+      JournalRecord record = JournalRecord.parse(bytes);
+      if (record.type != JOURNAL_ABORT) {
+        committed.add(record);
+        continue;
+      }
+      for (int i = committed.size() - 1; i >= 0; i--) {
+        JournalRecord aborted = committed.get(i);
+        if (aborted.id == record.id && aborted.subjectName.equals(record.subjectName)) {
+          committed.remove(i);
+          break;
+        }
+      }
+    }
+    Map<File, Set<Integer>> idsByFile = new HashMap<File, Set<Integer>>();
+    for (JournalRecord record : committed) {
+      String subjectName = record.subjectName;
+      int id = record.id;
+      String content = record.payload;
+
+      File subjectDir = subjectDir(subjectName);
+      File idFile = new File(subjectDir, SCHEMA_IDS);
+      if (record.type == JOURNAL_SUBJECT) {
+        if (!subjectDir.isDirectory() && !subjectDir.mkdirs()) {
+          throw new RuntimeException("Cannot create a FileSubject dir: "
+              + subjectDir.getAbsolutePath());
+        }
+        if (!idFile.exists()) {
+          createNewFileInDir(subjectDir, SCHEMA_IDS);
+        }
+        File propertyFile = new File(subjectDir, SUBJECT_PROPERTIES);
+        writeStringToFile(propertyFile, content, false);
+        dirtyFiles.add(propertyFile);
+        dirtyFiles.add(idFile);
+      } else if (record.type == JOURNAL_SCHEMA) {
+        Set<Integer> ids = idsByFile.get(idFile);
+        if (ids == null) {
+          ids = repairIdFile(idFile);
+          idsByFile.put(idFile, ids);
+        }
+        File schemaFile = new File(subjectDir, id + SCHEMA_POSTFIX);
+        byte[] stored = blobs.store(content);
+        writeBytesToFile(schemaFile, stored, false);
+        String hash = SchemaBlobStore.referencedHash(stored);
+        if (hash != null) {
+          dirtyFiles.add(blobs.blobFile(hash));
+        }
+        if (ids.add(id)) {
+          appendLineToFile(idFile, String.valueOf(id), false);
+        }
+        dirtyFiles.add(schemaFile);
+        dirtyFiles.add(idFile);
+      } else {
+        throw new IOException("Unknown journal record type " + record.type);
+      }
+    }
+    if (!records.isEmpty()) {
+      logger.info("Replayed {} of {} journal records from {}", committed.size(), records.size(), journal.getFile());
+    }
+    checkpoint(journal);
+  }
+
+  private static final class JournalRecord {
+    private final byte type;
+    private final String subjectName;
+    private final int id;
+    private final String payload;
+
+    private JournalRecord(byte type, String subjectName, int id, String payload) {
+      this.type = type;
+      this.subjectName = subjectName;
+      this.id = id;
+      this.payload = payload;
+    }
+
+    private static JournalRecord parse(byte[] record) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      byte type = in.readByte();
+      String subjectName = in.readUTF();
+      int id = in.readInt();
+      byte[] payload = new byte[in.readInt()];
+      in.readFully(payload);
+      return new JournalRecord(type, subjectName, id, new String(payload, "UTF-8"));
+    }
+  }
+
+  /**
+   * Drops a partially written last line from an id file, which may only have
+   * been left behind by a journaled registration, and returns the ids it holds.
+   */
+  private static Set<Integer> repairIdFile(File idFile) throws IOException {
+    Set<Integer> ids = new HashSet<Integer>();
+    RandomAccessFile raf = new RandomAccessFile(idFile, "rw");
+    try {
+      byte[] content = new byte[(int) raf.length()];
+      raf.readFully(content);
+      int end = content.length;
+      while (end > 0 && content[end - 1] != '\n') {
+        end--;
+      }
+      if (end < content.length) {
+        raf.setLength(end);
+      }
+      for (String line : new String(content, 0, end, "UTF-8").split("\n")) {
+        if (!line.trim().isEmpty()) {
+          ids.add(Integer.parseInt(line.trim()));
+        }
+      }
+    } finally {
+      raf.close();
+    }
+    return ids;
+  }
+
+  static byte[] journalRecord(byte type, String subjectName, int id, String payload) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      byte[] encoded = RepositoryUtil.getUtf8Bytes(payload);
+      out.writeByte(type);
+      out.writeUTF(subjectName);
+      out.writeInt(id);
+      out.writeInt(encoded.length);
+      out.write(encoded);
+      out.flush();
+    } catch (IOException e) {
+      // never happens for in-memory streams
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Makes a registration durable in the journal, if there is one, before any
+   * of its files are written. Must be followed by {@link #endWrite()}.
+   */
+  private void beginWrite(byte type, String subjectName, int id, String payload) {
+    checkpointLock.readLock().lock();
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.awaitDurable(journal.append(journalRecord(type, subjectName, id, payload)));
+    } catch (IOException e) {
+      checkpointLock.readLock().unlock();
+      throw new RuntimeException("Unable to write to journal: "
+          + journal.getFile().getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Records that the registration made durable by {@link #beginWrite} failed,
+   * so that it is not replayed. Must be called before {@link #endWrite()}.
+   */
+  private void abortWrite(String subjectName, int id) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.awaitDurable(journal.append(journalRecord(JOURNAL_ABORT, subjectName, id, "")));
+    } catch (IOException e) {
+      logger.error("Failed to abort the failed registration of " + subjectName + " in the journal "
+          + journal.getFile().getAbsolutePath() + ", it is replayed on the next startup", e);
+    }
+  }
+
+  private void endWrite(File... written) {
+    changedSinceSnapshot = true;
+    if (journal != null) {
+      dirtyFiles.addAll(Arrays.asList(written));
+    }
+    checkpointLock.readLock().unlock();
+    if (journal != null) {
+      try {
+        if (journal.size() >= CHECKPOINT_THRESHOLD) {
+          checkpoint(journal);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to checkpoint journal: "
+            + journal.getFile().getAbsolutePath(), e);
+      }
+    }
+  }
+
+  /**
+   * Forces every file written since the last checkpoint to disk, after which
+   * the journal is no longer needed and is emptied.
+   */
+  private void checkpoint(GroupCommitJournal journal) throws IOException {
+    checkpointLock.writeLock().lock();
+    try {
+      List<File> files;
+      synchronized (dirtyFiles) {
+        files = new ArrayList<File>(dirtyFiles);
+      }
+      for (File file : files) {
+        if (file.exists()) {
+          sync(file);
+        }
+      }
+      journal.truncate();
+      dirtyFiles.clear();
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+  }
+
+  private static void sync(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.getFD().sync();
+    } finally {
+      raf.close();
+    }
+  }
+
+  private boolean forceWrites() {
+    return durability == Durability.FSYNC;
+  }
+
+  /**
+   * Reads the subjects saved in the snapshot file, if there is one. A snapshot
+   * which cannot be read is ignored, every subject is then loaded from its
+   * directory.
+   */
+  private Map<String, SavedSubject> readSnapshot() {
+    Map<String, SavedSubject> result = new HashMap<String, SavedSubject>();
+    File file = new File(rootDir, SNAPSHOT);
+    if (!file.exists()) {
+      return result;
+    }
+    try {
+      byte[] content = new byte[(int) file.length()];
+      DataInputStream fileIn = new DataInputStream(new FileInputStream(file));
+      try {
+        fileIn.readFully(content);
+      } finally {
+        fileIn.close();
+      }
+      // the content is followed by its CRC-32
+      int length = content.length - 8;
+      CRC32 crc = new CRC32();
+      if (length < 0) {
+        throw new IOException("truncated snapshot");
+      }
+      crc.update(content, 0, length);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, length, 8));
+      if (in.readLong() != crc.getValue()) {
+        throw new IOException("checksum mismatch");
+      }
+      in = new DataInputStream(new ByteArrayInputStream(content, 0, length));
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("not a snapshot file");
+      }
+      long savedAt = in.readLong();
+      for (int count = in.readInt(); count > 0; count--) {
+        SavedSubject saved = SavedSubject.read(in);
+        result.put(saved.name, saved);
+      }
+      logger.info("Read the snapshot of {} subjects saved at {}", result.size(), new Date(savedAt));
+    } catch (IOException e) {
+      result.clear();
+      logger.warn("Ignoring unreadable snapshot {}", file.getAbsolutePath(), e);
+    } catch (RuntimeException e) {
+      result.clear();
+      logger.warn("Ignoring unreadable snapshot {}", file.getAbsolutePath(), e);
+    }
+    return result;
+  }
+
+  private void writeSnapshotIfChanged() {
+    if (!changedSinceSnapshot) {
+      return;
+    }
+    try {
+      writeSnapshot();
+    } catch (RuntimeException e) {
+      logger.warn("Failed to save a snapshot of {}", rootDir.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * Saves the state of every subject to the snapshot file, replacing it
+   * atomically. Subjects which have not been loaded since the repository was
+   * opened are saved as they were read from the previous snapshot.
+   */
+  private void writeSnapshot() {
+    synchronized (snapshotLock) {
+      changedSinceSnapshot = false;
+      Map<String, SavedSubject> subjects = new HashMap<String, SavedSubject>(savedSubjects);
+      for (FileSubject subject : loadedSubjects.values()) {
+        subjects.put(subject.getName(), subject.save());
       }
+      File tmp = new File(rootDir, SNAPSHOT_TMP);
+      File file = new File(rootDir, SNAPSHOT);
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(subjects.size());
+        for (SavedSubject saved : subjects.values()) {
+          saved.write(out);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try {
+          bytes.writeTo(fileOut);
+          fileOut.getFD().sync();
+        } finally {
+          fileOut.close();
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+          throw new IOException("Failed to rename " + tmp.getAbsolutePath());
+        }
+      } catch (IOException e) {
+        changedSinceSnapshot = true;
+        throw new RuntimeException("Unable to write snapshot: " + file.getAbsolutePath(), e);
+      }
+      logger.debug("Saved a snapshot of {} subjects to {}", subjects.size(), file);
+    }
+  }
+
+  private List<LazyFileSubject> loadSubjects(File repoDir) {
+    List<LazyFileSubject> subjects = new ArrayList<LazyFileSubject>();
+    for (File dir : layout.subjectDirs(repoDir)) {
+      LazyFileSubject subject = new LazyFileSubject(dir);
+      subjectCache.add(subject);
+      subjects.add(subject);
+    }
+    return subjects;
+  }
+
+  private void loadInBackground(final List<LazyFileSubject> subjects, final long startTime) {
+    if (subjects.isEmpty()) {
+      loader.shutdown();
+      return;
+    }
+    final AtomicInteger remaining = new AtomicInteger(subjects.size());
+    final AtomicInteger failed = new AtomicInteger();
+    for (final LazyFileSubject subject : subjects) {
+      loader.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (!closing) {
+              subject.delegate();
+            }
+          } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error("Failed to load subject {}", subject.getName(), e);
+          }
+          if (remaining.decrementAndGet() == 0) {
+            logger.info("Loaded {} subjects in the background in {} ms, {} failed",
+                subjects.size(), System.currentTimeMillis() - startTime, failed.get());
+            loader.shutdown();
+            // save the subjects which had to be read from their directories
+            if (!closing) {
+              writeSnapshotIfChanged();
+            }
+          }
+        }
+      });
     }
   }
 
@@ -134,6 +949,23 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     if (closed) {
       return;
     }
+    closing = true;
+    loader.shutdownNow();
+    snapshotWriter.shutdownNow();
+    // neither loads subjects nor saves a snapshot while the journal is
+    // checkpointed, nor once the lock is released
+    awaitTermination(loader);
+    awaitTermination(snapshotWriter);
+    if (journal != null) {
+      try {
+        checkpoint(journal);
+        journal.close();
+      } catch (IOException e) {
+        // the journal is replayed on the next startup
+        logger.warn("Failed to checkpoint the journal {}", journal.getFile(), e);
+      }
+    }
+    writeSnapshotIfChanged();
     try {
       fileLock.release();
     } catch (IOException e) {
@@ -154,31 +986,59 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
       // should never happen
     }
   }
+  private void awaitTermination(ExecutorService executor) {
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        logger.warn("Background threads still running after {} s", SHUTDOWN_TIMEOUT_SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
 
   @Override
   protected Subject getSubjectInstance(final String subjectName) {
-    return new FileSubject(new File(rootDir, subjectName));
+    FileSubject subject = new FileSubject(subjectDir(subjectName), null);
+    loadedSubjects.put(subjectName, subject);
+    return subject;
   }
 
   @Override
   protected void registerSubjectInBackend(final String subjectName, final SubjectConfig config) {
-    final File subjectDir = new File(rootDir, subjectName);
+    final File subjectDir = subjectDir(subjectName);
     if (subjectDir.exists()) {
       throw new RuntimeException(
           "Cannot create a FileSubject, directory already exists: "
               + subjectDir.getAbsolutePath());
     }
-    if (!subjectDir.mkdir()) {
-      throw new RuntimeException("Cannot create a FileSubject dir: "
-          + subjectDir.getAbsolutePath());
-    }
-
-    createNewFileInDir(subjectDir, SCHEMA_IDS);
-    File subjectProperties = createNewFileInDir(subjectDir, SUBJECT_PROPERTIES);
-
     Properties props = new Properties();
     props.putAll(RepositoryUtil.safeConfig(config).asMap());
-    writePropertyFile(subjectProperties, props);
+    String content = RepositoryUtil.propertiesToString(props, "Schema Repository Subject Properties");
+
+    beginWrite(JOURNAL_SUBJECT, subjectName, -1, content);
+    try {
+      if (!subjectDir.mkdirs()) {
+        throw new RuntimeException("Cannot create a FileSubject dir: "
+            + subjectDir.getAbsolutePath());
+      }
+
+      File idFile = createNewFileInDir(subjectDir, SCHEMA_IDS);
+      File subjectProperties = createNewFileInDir(subjectDir, SUBJECT_PROPERTIES);
+      writeStringToFile(subjectProperties, content, forceWrites());
+      if (forceWrites()) {
+        sync(idFile);
+      }
+      endWrite(idFile, subjectProperties);
+    } catch (RuntimeException e) {
+      abortWrite(subjectName, -1);
+      endWrite();
+      throw e;
+    } catch (IOException e) {
+      abortWrite(subjectName, -1);
+      endWrite();
+      throw new RuntimeException("Unable to sync file in: " + subjectDir.getAbsolutePath(), e);
+    }
   }
 
   private static File createNewFileInDir(File dir, String filename) {
@@ -194,7 +1054,7 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     return result;
   }
 
-  private static void writeToFile(File file, WriteOp op, boolean append) {
+  private static void writeToFile(File file, WriteOp op, boolean append, boolean sync) {
     FileOutputStream out;
     try {
       out = new FileOutputStream(file, append);
@@ -207,6 +1067,9 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
       BufferedWriter bwriter = new BufferedWriter(writer);
       op.write(bwriter);
       bwriter.flush();
+      if (sync) {
+        out.getFD().sync();
+      }
       bwriter.close();
       writer.close();
       out.close();
@@ -216,22 +1079,74 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     }
   }
 
-  private static void writePropertyFile(File file, final Properties prop) {
+  private static void writeBytesToFile(File file, byte[] content, boolean sync) {
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+        out.write(content);
+        if (sync) {
+          out.getFD().sync();
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write and close file "
+          + file.getAbsolutePath(), e);
+    }
+  }
+
+  private static byte[] readBytes(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      byte[] content = new byte[(int) raf.length()];
+      raf.readFully(content);
+      return content;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Maps a file read-only if it is large, otherwise reads it onto the heap,
+   * since mapping a small file costs more than reading it.
+   */
+  private static ByteBuffer readOrMap(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      if (size >= MAP_THRESHOLD) {
+        // the mapping outlives the channel
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      ByteBuffer bytes = ByteBuffer.allocate((int) size);
+      while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+        // read until full
+      }
+      bytes.flip();
+      return bytes;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeStringToFile(File file, final String content, boolean sync) {
     writeToFile(file, new WriteOp() {
       @Override
       protected void write(Writer writer) throws IOException {
-        prop.store(writer, "Schema Repository Subject Properties");
+        writer.write(content);
       }
-    }, false);
+    }, false, sync);
   }
 
-  private static void appendLineToFile(File file, final String line) {
+  private static void appendLineToFile(File file, final String line, boolean sync) {
     writeToFile(file, new WriteOp() {
       @Override
       protected void write(Writer writer) throws IOException {
         writer.append(line).append('\n');
       }
-    }, true);
+    }, true, sync);
   }
 
   private static void dirExists(File dir) {
@@ -260,23 +1175,287 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
   protected Map<String, String> exposeConfiguration() {
     final Map<String, String> properties = new LinkedHashMap<String, String>(super.exposeConfiguration());
     properties.put(Config.LOCAL_FILE_SYSTEM_PATH, rootDir.getAbsolutePath());
+    properties.put(Config.LOCAL_FILE_SYSTEM_DURABILITY, durability.toString());
+    properties.put(Config.LOCAL_FILE_SYSTEM_LAYOUT, layout.toString());
+    properties.put(Config.LOCAL_FILE_SYSTEM_DEDUPLICATE, String.valueOf(blobs.isDeduplicating()));
     return properties;
   }
 
+  /**
+   * Stores schema blobs in files named after their hash, under one of 256
+   * directories of the '.blobs' directory.
+   */
+  private class FileBlobStore extends SchemaBlobStore {
+
+    private FileBlobStore(boolean deduplicate) {
+      super(deduplicate);
+    }
+
+    private File blobFile(String hash) {
+      return new File(new File(new File(rootDir, BLOBS), hash.substring(0, 2)), hash);
+    }
+
+    @Override
+    protected byte[] readBlob(String hash) throws IOException {
+      File file = blobFile(hash);
+      return file.exists() ? readBytes(file) : null;
+    }
+
+    @Override
+    protected void writeBlob(String hash, byte[] content) throws IOException {
+      File file = blobFile(hash);
+      if (!file.exists()) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+          throw new IOException("Unable to create directory: " + dir.getAbsolutePath());
+        }
+        // written aside first, so that a blob is never seen incomplete
+        File tmp = File.createTempFile(hash, ".tmp", dir);
+        writeBytesToFile(tmp, content, forceWrites());
+        if (!tmp.renameTo(file) && !file.exists()) {
+          tmp.delete();
+          throw new IOException("Unable to rename " + tmp.getAbsolutePath());
+        }
+        tmp.delete();
+      }
+      if (journal != null) {
+        dirtyFiles.add(file);
+      }
+    }
+  }
+
   private abstract static class WriteOp {
     protected abstract void write(Writer writer) throws IOException;
   }
 
+  /**
+   * A handle to a subject found on disk at startup. The subject directory is
+   * only read and verified when the subject is first accessed, or when the
+   * background loader gets to it, whichever happens first.
+   */
+  private class LazyFileSubject extends Subject {
+    private final File subjectDir;
+    private volatile Subject delegate;
+
+    private LazyFileSubject(File dir) {
+      super(dir.getName());
+      this.subjectDir = dir;
+    }
+
+    private Subject delegate() {
+      Subject result = delegate;
+      if (result == null) {
+        synchronized (this) {
+          result = delegate;
+          if (result == null) {
+            FileSubject subject = new FileSubject(subjectDir, savedSubjects.get(getName()));
+            loadedSubjects.put(getName(), subject);
+            savedSubjects.remove(getName());
+            result = Subject.validatingSubject(subject, validators);
+            delegate = result;
+          }
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public SubjectConfig getConfig() {
+      return delegate().getConfig();
+    }
+
+    @Override
+    public SchemaEntry register(String schema) throws SchemaValidationException {
+      return delegate().register(schema);
+    }
+
+    @Override
+    public SchemaEntry registerIfLatest(String schema, SchemaEntry latest)
+        throws SchemaValidationException {
+      return delegate().registerIfLatest(schema, latest);
+    }
+
+    @Override
+    public SchemaEntry lookupBySchema(String schema) {
+      return delegate().lookupBySchema(schema);
+    }
+
+    @Override
+    public SchemaEntry lookupById(String id) {
+      return delegate().lookupById(id);
+    }
+
+    @Override
+    public ByteBuffer lookupSchemaBytesById(String id) {
+      return delegate().lookupSchemaBytesById(id);
+    }
+
+    @Override
+    public SchemaEntry latest() {
+      return delegate().latest();
+    }
+
+    @Override
+    public Iterable<SchemaEntry> allEntries() {
+      return delegate().allEntries();
+    }
+
+    @Override
+    public boolean integralKeys() {
+      return true;
+    }
+  }
+
+  /**
+   * An immutable view of the schema ids of a {@link FileSubject}, in order from
+   * oldest to newest, and of its latest entry. A registration publishes a new
+   * snapshot which shares the id array of the previous one whenever it has
+   * room left, since slots beyond a snapshot's count are never read through it.
+   */
+  private static final class IdSnapshot {
+    private static final IdSnapshot EMPTY = new IdSnapshot(new int[0], 0, -1, null);
+
+    private final int[] ids;
+    private final int count;
+    private final int largestId;
+    private final SchemaEntry latest;
+
+    private IdSnapshot(int[] ids, int count, int largestId, SchemaEntry latest) {
+      this.ids = ids;
+      this.count = count;
+      this.largestId = largestId;
+      this.latest = latest;
+    }
+
+    private IdSnapshot append(int id, SchemaEntry newLatest) {
+      int[] next = ids;
+      if (count == ids.length) {
+        next = Arrays.copyOf(ids, Math.max(8, count * 2));
+      }
+      next[count] = id;
+      return new IdSnapshot(next, count + 1, Math.max(largestId, id), newLatest);
+    }
+
+    private boolean contains(int id) {
+      // ids are allocated in increasing order and every id up to the largest
+      // one published has its schema file completely written
+      return id >= 0 && id <= largestId;
+    }
+  }
+
+  /**
+   * The state of a {@link FileSubject} as saved in the snapshot file, along
+   * with the size and modification time of its files at that point, so that
+   * a subject modified since can be told apart and loaded from its directory.
+   */
+  private static final class SavedSubject {
+    private final String name;
+    private final long dirModified;
+    private final long idFileLength;
+    private final long idFileModified;
+    private final long propertyFileModified;
+    private final Map<String, String> config;
+    private final int[] ids;
+    private final long[] fingerprints;
+    private final int[] fingerprintIds;
+
+    private SavedSubject(String name, long dirModified, long idFileLength, long idFileModified,
+        long propertyFileModified, Map<String, String> config, int[] ids, long[] fingerprints,
+        int[] fingerprintIds) {
+      this.name = name;
+      this.dirModified = dirModified;
+      this.idFileLength = idFileLength;
+      this.idFileModified = idFileModified;
+      this.propertyFileModified = propertyFileModified;
+      this.config = config;
+      this.ids = ids;
+      this.fingerprints = fingerprints;
+      this.fingerprintIds = fingerprintIds;
+    }
+
+    private boolean matches(File dir, File idFile, File propertyFile) {
+      // files added to or removed from the directory change its modification time
+      return dir.lastModified() == dirModified
+          && idFile.length() == idFileLength
+          && idFile.lastModified() == idFileModified
+          && propertyFile.lastModified() == propertyFileModified;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+      out.writeUTF(name);
+      out.writeLong(dirModified);
+      out.writeLong(idFileLength);
+      out.writeLong(idFileModified);
+      out.writeLong(propertyFileModified);
+      out.writeInt(config.size());
+      for (Map.Entry<String, String> entry : config.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+      out.writeInt(ids.length);
+      for (int id : ids) {
+        out.writeInt(id);
+      }
+      out.writeInt(fingerprints.length);
+      for (int i = 0; i < fingerprints.length; i++) {
+        out.writeLong(fingerprints[i]);
+        out.writeInt(fingerprintIds[i]);
+      }
+    }
+
+    private static SavedSubject read(DataInputStream in) throws IOException {
+      String name = in.readUTF();
+      long dirModified = in.readLong();
+      long idFileLength = in.readLong();
+      long idFileModified = in.readLong();
+      long propertyFileModified = in.readLong();
+      Map<String, String> config = new HashMap<String, String>();
+      for (int count = in.readInt(); count > 0; count--) {
+        config.put(in.readUTF(), in.readUTF());
+      }
+      int[] ids = new int[in.readInt()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = in.readInt();
+      }
+      int count = in.readInt();
+      long[] fingerprints = new long[count];
+      int[] fingerprintIds = new int[count];
+      for (int i = 0; i < count; i++) {
+        fingerprints[i] = in.readLong();
+        fingerprintIds[i] = in.readInt();
+      }
+      return new SavedSubject(name, dirModified, idFileLength, idFileModified, propertyFileModified,
+          config, ids, fingerprints, fingerprintIds);
+    }
+  }
+
   private class FileSubject extends Subject {
     private final File subjectDir;
     private final File idFile;
     private final File propertyFile;
     private final SubjectConfig config;
 
-    private int largestId = -1;
-    private SchemaEntry latest;
+    // schema fingerprint to id, so that lookups by schema do not need to scan
+    // every schema file of the subject
+    private final ConcurrentHashMap<Long, Integer> fingerprintToId =
+        new ConcurrentHashMap<Long, Integer>();
+
+    // the stored bytes of the schemas read by id so far, which never change
+    // once published, so that they are read or mapped only once
+    private final ConcurrentHashMap<String, ByteBuffer> schemaBytes =
+        new ConcurrentHashMap<String, ByteBuffer>();
 
-    private FileSubject(File dir) {
+    // read from the id file once at startup, since this process holds the
+    // repository lock nobody else appends to it. Registrations are serialized
+    // on this subject and publish a new snapshot, readers never lock.
+    private volatile IdSnapshot snapshot = IdSnapshot.EMPTY;
+
+    /**
+     * @param saved the state of this subject in the snapshot file, used
+     * instead of reading every schema if the subject has not been modified
+     * since, or null
+     */
+    private FileSubject(File dir, SavedSubject saved) {
       super(dir.getName());
       this.subjectDir = dir;
       this.idFile = new File(dir, SCHEMA_IDS);
@@ -287,25 +1466,31 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
       fileReadable(propertyFile);
       fileWriteable(propertyFile);
 
+      if (saved != null && saved.matches(subjectDir, idFile, propertyFile)) {
+        config = new SubjectConfig.Builder().set(saved.config).build();
+        restore(saved);
+        return;
+      }
+      changedSinceSnapshot = true;
+
       // read from config file
       Properties props = new Properties();
       try {
         props.load(new FileInputStream(propertyFile));
         config = RepositoryUtil.configFromProperties(props);
-        Integer lastId = null;
+        IdSnapshot loaded = IdSnapshot.EMPTY;
         HashSet<String> schemaFileNames = getSchemaFiles();
         HashSet<Integer> foundIds = new HashSet<Integer>();
-        for (Integer id : getSchemaIds()) {
-          if (id > largestId) {
-            largestId = id;
-          }
-          lastId = id;
+        for (Integer id : readSchemaIds()) {
           if(!foundIds.add(id)) {
             throw new RuntimeException("Corrupt id file, id '" + id +
                 "' duplicated in " + idFile.getAbsolutePath());
           }
           fileReadable(getSchemaFile(id));
           schemaFileNames.remove(getSchemaFileName(id));
+          String schema = readSchemaForId(id.toString());
+          loaded = loaded.append(id, new SchemaEntry(id.toString(), schema));
+          index(id, schema);
         }
         if (schemaFileNames.size() > 0) {
           throw new RuntimeException("Schema files found in subject directory "
@@ -313,16 +1498,48 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
               + " that are not referenced in the " + SCHEMA_IDS + " file: "
               + schemaFileNames.toString());
         }
-        if (lastId != null) {
-          latest = new SchemaEntry(lastId.toString(),
-              readSchemaForId(lastId.toString()));
-        }
+        snapshot = loaded;
       } catch (IOException e) {
         throw new RuntimeException("error initializing subject: "
             + subjectDir.getAbsolutePath(), e);
       }
     }
 
+    private void restore(SavedSubject saved) {
+      IdSnapshot restored = IdSnapshot.EMPTY;
+      for (int i = 0; i < saved.ids.length; i++) {
+        SchemaEntry latest = null;
+        if (i == saved.ids.length - 1) {
+          String id = String.valueOf(saved.ids[i]);
+          latest = new SchemaEntry(id, readSchemaForId(id));
+        }
+        restored = restored.append(saved.ids[i], latest);
+      }
+      for (int i = 0; i < saved.fingerprints.length; i++) {
+        fingerprintToId.put(saved.fingerprints[i], saved.fingerprintIds[i]);
+      }
+      snapshot = restored;
+    }
+
+    /**
+     * @return the state of this subject to save in the snapshot file
+     */
+    private synchronized SavedSubject save() {
+      // registrations hold the lock on this subject, so the files match the ids
+      IdSnapshot current = snapshot;
+      long[] fingerprints = new long[fingerprintToId.size()];
+      int[] fingerprintIds = new int[fingerprints.length];
+      int i = 0;
+      for (Map.Entry<Long, Integer> entry : fingerprintToId.entrySet()) {
+        fingerprints[i] = entry.getKey();
+        fingerprintIds[i] = entry.getValue();
+        i++;
+      }
+      return new SavedSubject(getName(), subjectDir.lastModified(), idFile.length(), idFile.lastModified(),
+          propertyFile.lastModified(), config.asMap(), Arrays.copyOf(current.ids, current.count),
+          fingerprints, fingerprintIds);
+    }
+
     @Override
     public SubjectConfig getConfig() {
       return config;
@@ -335,38 +1552,41 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
       RepositoryUtil.validateSchemaOrSubject(schema);
       SchemaEntry entry = lookupBySchema(schema);
       if (entry == null) {
-        entry = createNewSchemaFile(schema);
-        appendLineToFile(idFile, entry.getId());
-        latest = entry;
+        IdSnapshot current = snapshot;
+        int newId = current.largestId + 1;
+        beginWrite(JOURNAL_SCHEMA, getName(), newId, schema);
+        try {
+          entry = createNewSchemaFile(newId, schema);
+          appendLineToFile(idFile, entry.getId(), forceWrites());
+        } catch (RuntimeException e) {
+          abortWrite(getName(), newId);
+          throw e;
+        } finally {
+          endWrite(getSchemaFile(newId), idFile);
+        }
+        // publish only once the schema file is complete
+        snapshot = current.append(newId, entry);
+        index(newId, schema);
       }
       return entry;
     }
 
-    private synchronized SchemaEntry createNewSchemaFile(String schema) {
+    private SchemaEntry createNewSchemaFile(int newId, String schema) {
       try {
-
-        int newId = largestId + 1;
-        File f = getSchemaFile(String.valueOf(newId));
+        File f = getSchemaFile(newId);
         if (!f.exists() && f.createNewFile()) {
-          Writer output = new BufferedWriter(new FileWriter(f));
-          try {
-            output.write(schema);
-            output.flush();
-          } finally {
-            output.close();
+          byte[] stored = blobs.store(schema);
+          writeBytesToFile(f, stored, forceWrites());
+          // the copy shared through the blob store, if any
+          if (SchemaBlobStore.referencedHash(stored) != null) {
+            schema = blobs.load(stored);
           }
-
-          latest = new SchemaEntry(String.valueOf(newId), schema);
-          largestId++;
-          return latest;
+          return new SchemaEntry(String.valueOf(newId), schema);
         } else {
           throw new RuntimeException(
               "Unable to register schema, schema file either exists already "
                   + " or couldn't create new file");
         }
-      } catch (NumberFormatException e) {
-        throw new RuntimeException(
-            "Unable to register schema, invalid schema latest schema id ", e);
       } catch (IOException e) {
         throw new RuntimeException(
             "Unable to register schema, couldn't create schema file ", e);
@@ -378,8 +1598,9 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     public synchronized SchemaEntry registerIfLatest(String schema,
         SchemaEntry latest) throws SchemaValidationException {
       isValid();
-      if (latest == this.latest // both null
-          || (latest != null && latest.equals(this.latest))) {
+      SchemaEntry actualLatest = snapshot.latest;
+      if (latest == actualLatest // both null
+          || (latest != null && latest.equals(actualLatest))) {
         return register(schema);
       } else {
         return null;
@@ -387,11 +1608,25 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     }
 
     @Override
-    public synchronized SchemaEntry lookupBySchema(String schema) {
+    public SchemaEntry lookupBySchema(String schema) {
       isValid();
       RepositoryUtil.validateSchemaOrSubject(schema);
-      for (Integer id : getSchemaIds()) {
-        String idStr = id.toString();
+      Integer id = fingerprintToId.get(RepositoryUtil.fingerprint64(schema));
+      if (id == null) {
+        return null;
+      }
+      String idStr = id.toString();
+      if (schema.equals(readSchemaForIdOrNull(idStr))) {
+        return new SchemaEntry(idStr, schema);
+      }
+      // fingerprint collision with another schema of this subject
+      return scanForSchema(schema);
+    }
+
+    private SchemaEntry scanForSchema(String schema) {
+      IdSnapshot current = snapshot;
+      for (int i = 0; i < current.count; i++) {
+        String idStr = String.valueOf(current.ids[i]);
         String schemaInFile = readSchemaForIdOrNull(idStr);
         if (schema.equals(schemaInFile)) {
           return new SchemaEntry(idStr, schema);
@@ -400,9 +1635,18 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
       return null;
     }
 
+    private void index(int id, String schema) {
+      Long fingerprint = RepositoryUtil.fingerprint64(schema);
+      // on a collision the oldest id is kept and the newer one is only found by scanning
+      fingerprintToId.putIfAbsent(fingerprint, id);
+    }
+
     @Override
-    public synchronized SchemaEntry lookupById(String id) {
+    public SchemaEntry lookupById(String id) {
       isValid();
+      if (!isPublished(id)) {
+        return null;
+      }
       String schema = readSchemaForIdOrNull(id);
       if (schema != null) {
         return new SchemaEntry(id, schema);
@@ -411,21 +1655,60 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     }
 
     @Override
-    public synchronized SchemaEntry latest() {
+    public ByteBuffer lookupSchemaBytesById(String id) {
       isValid();
-      return latest;
+      if (!isPublished(id)) {
+        return null;
+      }
+      ByteBuffer bytes = schemaBytes.get(id);
+      if (bytes != null) {
+        return bytes.duplicate();
+      }
+      File schemaFile = getSchemaFile(id);
+      try {
+        bytes = readOrMap(schemaFile);
+        // a reference is small enough to have been read onto the heap
+        String hash = bytes.hasArray() ? SchemaBlobStore.referencedHash(bytes.array()) : null;
+        if (hash != null) {
+          bytes = readOrMap(blobs.blobFile(hash));
+        }
+      } catch (IOException e) {
+        logger.debug("Failed to read {}", schemaFile, e);
+        return null;
+      }
+      // a racing reader may have read it as well, either copy is kept
+      bytes = bytes.asReadOnlyBuffer();
+      schemaBytes.put(id, bytes);
+      return bytes.duplicate();
+    }
+
+    // only canonical ids of completely written schemas
+    private boolean isPublished(String id) {
+      int parsed;
+      try {
+        parsed = Integer.parseInt(id);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      return snapshot.contains(parsed) && String.valueOf(parsed).equals(id);
     }
 
     @Override
-    public synchronized Iterable<SchemaEntry> allEntries() {
+    public SchemaEntry latest() {
       isValid();
-      List<SchemaEntry> entries = new ArrayList<SchemaEntry>();
-      for (Integer id : getSchemaIds()) {
-          String idStr = id.toString();
-          String schema = readSchemaForId(idStr);
-          entries.add(new SchemaEntry(idStr, schema));
+      return snapshot.latest;
+    }
+
+    @Override
+    public Iterable<SchemaEntry> allEntries() {
+      isValid();
+      IdSnapshot current = snapshot;
+      List<SchemaEntry> entries = new ArrayList<SchemaEntry>(current.count);
+      for (int i = current.count - 1; i >= 0; i--) {
+        String idStr = String.valueOf(current.ids[i]);
+        String schema = readSchemaForId(idStr);
+        entries.add(new SchemaEntry(idStr, schema));
       }
-      Collections.reverse(entries);
       return entries;
     }
 
@@ -448,25 +1731,24 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     }
 
     private String readSchemaFile(File schemaFile) {
+      byte[] content;
       try {
-        return readAllAsString(schemaFile);
-      } catch (FileNotFoundException e) {
+        content = readBytes(schemaFile);
+      } catch (IOException e) {
         throw new RuntimeException(
             "Could not read schema contents at: "
                 + schemaFile.getAbsolutePath(), e);
       }
-    }
-
-    private String readAllAsString(File file) throws FileNotFoundException {
-      // a scanner that will read a whole file
-      Scanner s = new Scanner(file, "UTF-8").useDelimiter("\\A");
+      if (content.length == 0) {
+        throw new RuntimeException(
+            "file is empty: " + schemaFile.getAbsolutePath());
+      }
       try {
-        return s.next();
-      } catch (NoSuchElementException e) {
+        return blobs.load(content);
+      } catch (IOException e) {
         throw new RuntimeException(
-            "file is empty: " + file.getAbsolutePath(), e);
-      } finally {
-        s.close();
+            "Could not resolve the schema referenced at: "
+                + schemaFile.getAbsolutePath(), e);
       }
     }
 
@@ -484,7 +1766,7 @@ public class LocalFileSystemRepository extends AbstractBackendRepository {
     }
 
     // schema ids from the schema id file, in order from oldest to newest
-    private List<Integer> getSchemaIds(){
+    private List<Integer> readSchemaIds(){
       Scanner s = getIdFileScanner();
       List<Integer> ids = new ArrayList<Integer>();
       try {
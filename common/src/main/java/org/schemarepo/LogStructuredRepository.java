@@ -0,0 +1,578 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.schemarepo.config.Config;
+
+/**
+ * A {@link Repository} that persists content to an append-only log on the
+ * local file system. <br/>
+ * <br/>
+ * Unlike {@link LocalFileSystemRepository}, which stores one file per schema,
+ * all of the state of this {@link Repository} is kept in a handful of segment
+ * files named 'segment-NNNNNNNNNN.log' within a single base directory. Every
+ * subject creation and every schema registration is appended to the last
+ * segment as a record: <li>
+ * a 4 byte body length, with 0 marking the end of the log,</li> <li>
+ * a 4 byte CRC-32 of the body,</li> <li>
+ * a body made of a 1 byte record type, the 4 byte length and UTF-8 bytes of
+ * the subject name, the 4 byte schema id and the UTF-8 payload: the subject
+ * properties for subject records, the schema for schema records.</li>
+ * <br/>
+ * Segments are pre-allocated to the configured segment size and memory-mapped.
+ * The log is replayed at startup to rebuild an in-memory index from schema id
+ * to record offset, after which reads are served straight from the mapped
+ * segments. Each append is forced to disk before it is acknowledged.
+ */
+public class LogStructuredRepository extends AbstractBackendRepository {
+
+  private static final String LOCKFILE = ".repo.lock";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_POSTFIX = ".log";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte SUBJECT_RECORD = 1;
+  private static final byte SCHEMA_RECORD = 2;
+  // body length and CRC
+  private static final int HEADER_SIZE = 8;
+  // record type, subject name length and schema id
+  private static final int BODY_FIXED_SIZE = 9;
+
+  private final File rootDir;
+  private final int segmentSize;
+  private final FileChannel lockChannel;
+  private final FileLock fileLock;
+
+  private final List<Segment> segments = new ArrayList<Segment>();
+  private final Map<String, LogSubject> subjects = new HashMap<String, LogSubject>();
+
+  /**
+   * Create a LogStructuredRepository with the default segment size.
+   *
+   * @param repoPath The path where to store the Repository's state
+   */
+  public LogStructuredRepository(String repoPath, ValidatorFactory validators) {
+    this(repoPath, Config.getIntDefault(Config.LOG_STRUCTURED_SEGMENT_SIZE), validators);
+  }
+
+  /**
+   * Create a LogStructuredRepository in the directory path provided. Locks a
+   * file ".repo.lock" to ensure no other object or process is appending to
+   * the same log. The lock is released if {@link #close()} is called, or the
+   * JVM exits.
+   *
+   * @param repoPath The path where to store the Repository's state
+   * @param segmentSize The size in bytes to which new segments are pre-allocated
+   */
+  @Inject
+  public LogStructuredRepository(@Named(Config.LOG_STRUCTURED_PATH) String repoPath,
+                                 @Named(Config.LOG_STRUCTURED_SEGMENT_SIZE) Integer segmentSize,
+                                 ValidatorFactory validators) {
+    super(validators);
+    if (segmentSize == null || segmentSize < HEADER_SIZE + BODY_FIXED_SIZE) {
+      throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+    }
+    this.segmentSize = segmentSize;
+    this.rootDir = new File(repoPath);
+    if ((!rootDir.exists() && !rootDir.mkdirs()) || !rootDir.isDirectory()) {
+      throw new java.lang.RuntimeException(
+          "Unable to create repo directory, or not a directory: "
+              + rootDir.getAbsolutePath());
+    }
+    // lock repository
+    try {
+      File lockfile = new File(rootDir, LOCKFILE);
+      lockfile.createNewFile();
+      @SuppressWarnings("resource") // raf is closed when lockChannel is closed
+      RandomAccessFile raf = new RandomAccessFile(lockfile, "rw");
+      lockChannel = raf.getChannel();
+      fileLock = lockChannel.tryLock();
+      if (fileLock != null) {
+        lockfile.deleteOnExit();
+      } else {
+        throw new IllegalStateException("Failed to lock file: "
+            + lockfile.getAbsolutePath());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to lock repository directory: "
+          + rootDir.getAbsolutePath(), e);
+    }
+    try {
+      openSegments();
+      replay();
+    } catch (IOException e) {
+      closeSegments();
+      throw new RuntimeException("Unable to read repository log in: "
+          + rootDir.getAbsolutePath(), e);
+    }
+  }
+
+  private void openSegments() throws IOException {
+    String[] names = rootDir.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_POSTFIX);
+      }
+    });
+    // zero padded names sort in segment order
+    Arrays.sort(names);
+    for (int i = 0; i < names.length; i++) {
+      if (!names[i].equals(segmentFileName(i))) {
+        throw new IllegalStateException("Missing log segment " + segmentFileName(i)
+            + " in " + rootDir.getAbsolutePath());
+      }
+      segments.add(new Segment(i, new File(rootDir, names[i]), 0));
+    }
+    if (segments.isEmpty()) {
+      segments.add(new Segment(0, new File(rootDir, segmentFileName(0)), segmentSize));
+    }
+  }
+
+  private static String segmentFileName(int index) {
+    return String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_POSTFIX);
+  }
+
+  private void replay() throws IOException {
+    int records = 0;
+    for (Segment segment : segments) {
+      boolean last = segment.index == segments.size() - 1;
+      ByteBuffer buf = segment.mapped.duplicate();
+      while (buf.remaining() >= HEADER_SIZE) {
+        int start = buf.position();
+        int length = buf.getInt();
+        if (length == 0) {
+          buf.position(start);
+          break;
+        }
+        int crc = buf.getInt();
+        if (length < BODY_FIXED_SIZE || length > buf.remaining()
+            || crc != crc(buf, buf.position(), length)) {
+          if (!last) {
+            throw new IllegalStateException("Corrupt record at offset " + start
+                + " of log segment " + segment.file.getAbsolutePath());
+          }
+          // a torn append at the tail of the log, never acknowledged
+          logger.warn("Discarding incomplete record at offset {} of {}", start, segment.file);
+          discardTail(segment, start);
+          buf.position(start);
+          break;
+        }
+        apply(segment, buf.position(), length);
+        buf.position(buf.position() + length);
+        records++;
+      }
+      segment.writePosition = buf.position();
+    }
+    logger.info("Replayed {} records from {} log segment(s) for {} subjects",
+        records, segments.size(), subjects.size());
+  }
+
+  private void discardTail(Segment segment, int from) {
+    ByteBuffer buf = segment.mapped.duplicate();
+    buf.position(from);
+    while (buf.hasRemaining()) {
+      buf.put((byte) 0);
+    }
+    segment.mapped.force();
+  }
+
+  private void apply(Segment segment, int bodyOffset, int length) {
+    ByteBuffer body = segment.mapped.duplicate();
+    body.position(bodyOffset);
+    byte type = body.get();
+    byte[] name = new byte[body.getInt()];
+    body.get(name);
+    int id = body.getInt();
+    int payloadOffset = body.position();
+    int payloadLength = bodyOffset + length - payloadOffset;
+    String subjectName = new String(name, UTF8);
+    if (type == SUBJECT_RECORD) {
+      byte[] config = new byte[payloadLength];
+      body.get(config);
+      LogSubject subject = new LogSubject(subjectName, readConfig(config));
+      subjects.put(subjectName, subject);
+      cacheSubject(subject);
+    } else if (type == SCHEMA_RECORD) {
+      LogSubject subject = subjects.get(subjectName);
+      if (subject == null) {
+        throw new IllegalStateException("Schema record at offset " + bodyOffset
+            + " of " + segment.file.getAbsolutePath() + " references unknown subject "
+            + subjectName);
+      }
+      subject.addLocation(id, segment, payloadOffset, payloadLength, null);
+    } else {
+      throw new IllegalStateException("Unknown record type " + type + " at offset "
+          + bodyOffset + " of " + segment.file.getAbsolutePath());
+    }
+  }
+
+  private static SubjectConfig readConfig(byte[] raw) {
+    Properties props = new Properties();
+    try {
+      props.load(new ByteArrayInputStream(raw));
+    } catch (IOException e) {
+      // never happens for in-memory streams
+      throw new IllegalStateException(e);
+    }
+    return RepositoryUtil.configFromProperties(props);
+  }
+
+  private static int crc(ByteBuffer buf, int offset, int length) {
+    CRC32 crc = new CRC32();
+    if (buf.hasArray()) {
+      crc.update(buf.array(), buf.arrayOffset() + offset, length);
+    } else {
+      byte[] chunk = new byte[Math.min(length, 8192)];
+      ByteBuffer view = buf.duplicate();
+      view.position(offset);
+      int remaining = length;
+      while (remaining > 0) {
+        int n = Math.min(remaining, chunk.length);
+        view.get(chunk, 0, n);
+        crc.update(chunk, 0, n);
+        remaining -= n;
+      }
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Appends a record to the log and forces it to disk.
+   *
+   * @return the offset of the payload within the segment it was written to
+   */
+  private synchronized int append(byte type, String subjectName, int id, byte[] payload,
+      Segment[] writtenTo) {
+    byte[] name = subjectName.getBytes(UTF8);
+    int length = BODY_FIXED_SIZE + name.length + payload.length;
+    ByteBuffer body = ByteBuffer.allocate(length);
+    body.put(type).putInt(name.length).put(name).putInt(id).put(payload);
+    int recordSize = HEADER_SIZE + length;
+    Segment segment = segments.get(segments.size() - 1);
+    try {
+      if (segment.capacity() - segment.writePosition < recordSize) {
+        segment = new Segment(segments.size(),
+            new File(rootDir, segmentFileName(segments.size())),
+            Math.max(segmentSize, recordSize));
+        segments.add(segment);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to create a new log segment in "
+          + rootDir.getAbsolutePath(), e);
+    }
+    int start = segment.writePosition;
+    ByteBuffer buf = segment.mapped.duplicate();
+    buf.position(start + HEADER_SIZE);
+    buf.put(body.array());
+    // write the header last, so that a partial record is never valid
+    buf.position(start);
+    buf.putInt(length).putInt(crc(body, 0, length));
+    segment.mapped.force();
+    segment.writePosition = start + recordSize;
+    writtenTo[0] = segment;
+    return start + HEADER_SIZE + BODY_FIXED_SIZE + name.length;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    closeSegments();
+    try {
+      fileLock.release();
+    } catch (IOException e) {
+      // nothing to do here -- it was already released or there are underlying errors we cannot recover from
+      logger.debug("Failed to release the lock {}", fileLock, e);
+    } finally {
+      try {
+        lockChannel.close();
+      } catch (IOException e) {
+        // nothing to do here -- underlying errors but recovery not possible here or in client, and already closed
+        logger.debug("Failed to close lockChannel {}", lockChannel, e);
+      }
+    }
+    try {
+      super.close();
+    } catch (IOException e) {
+      // should never happen
+    }
+  }
+
+  private void closeSegments() {
+    for (Segment segment : segments) {
+      try {
+        segment.channel.close();
+      } catch (IOException e) {
+        logger.debug("Failed to close log segment {}", segment.file, e);
+      }
+    }
+  }
+
+  @Override
+  protected Subject getSubjectInstance(final String subjectName) {
+    synchronized (subjects) {
+      LogSubject subject = subjects.get(subjectName);
+      if (subject == null) {
+        throw new IllegalStateException("Unexpected: subject must've been created by #registerSubjectInBackend");
+      }
+      return subject;
+    }
+  }
+
+  @Override
+  protected void registerSubjectInBackend(final String subjectName, final SubjectConfig config) {
+    SubjectConfig safeConfig = RepositoryUtil.safeConfig(config);
+    Properties props = new Properties();
+    props.putAll(safeConfig.asMap());
+    byte[] payload = RepositoryUtil.propertiesToString(props,
+        "Schema Repository Subject Properties").getBytes(UTF8);
+    append(SUBJECT_RECORD, subjectName, -1, payload, new Segment[1]);
+    synchronized (subjects) {
+      subjects.put(subjectName, new LogSubject(subjectName, safeConfig));
+    }
+  }
+
+  @Override
+  protected Map<String, String> exposeConfiguration() {
+    final Map<String, String> properties = new LinkedHashMap<String, String>(super.exposeConfiguration());
+    properties.put(Config.LOG_STRUCTURED_PATH, rootDir.getAbsolutePath());
+    properties.put(Config.LOG_STRUCTURED_SEGMENT_SIZE, String.valueOf(segmentSize));
+    return properties;
+  }
+
+  /**
+   * A pre-allocated, memory-mapped segment file of the log.
+   */
+  private static final class Segment {
+    private final int index;
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer readOnly;
+    private int writePosition;
+
+    private Segment(int index, File file, int preallocate) throws IOException {
+      this.index = index;
+      this.file = file;
+      @SuppressWarnings("resource") // raf is closed when channel is closed
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      if (raf.length() < preallocate) {
+        raf.setLength(preallocate);
+      }
+      this.channel = raf.getChannel();
+      this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      this.readOnly = mapped.asReadOnlyBuffer();
+    }
+
+    private int capacity() {
+      return mapped.capacity();
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+      ByteBuffer view = readOnly.duplicate();
+      view.position(offset);
+      view.limit(offset + length);
+      return view.slice();
+    }
+
+    private String read(int offset, int length) {
+      ByteBuffer view = readOnly.duplicate();
+      view.position(offset);
+      view.limit(offset + length);
+      try {
+        return UTF8.newDecoder().decode(view).toString();
+      } catch (CharacterCodingException e) {
+        throw new IllegalStateException("Invalid schema encoding at offset " + offset
+            + " of " + file.getAbsolutePath(), e);
+      }
+    }
+  }
+
+  private class LogSubject extends Subject {
+    private final SubjectConfig config;
+
+    // id i is stored in segments[i] at offsets[i] and spans lengths[i] bytes
+    private Segment[] locations = new Segment[4];
+    private int[] offsets = new int[4];
+    private int[] lengths = new int[4];
+    private int count = 0;
+
+    private final Map<Long, Integer> fingerprintToId = new HashMap<Long, Integer>();
+    private SchemaEntry latest;
+
+    private LogSubject(String name, SubjectConfig config) {
+      super(name);
+      this.config = config;
+    }
+
+    private void addLocation(int id, Segment segment, int offset, int length, String schema) {
+      if (id != count) {
+        throw new IllegalStateException("Corrupt log, expected id " + count
+            + " but found " + id + " for subject " + getName());
+      }
+      if (count == offsets.length) {
+        locations = Arrays.copyOf(locations, count * 2);
+        offsets = Arrays.copyOf(offsets, count * 2);
+        lengths = Arrays.copyOf(lengths, count * 2);
+      }
+      locations[count] = segment;
+      offsets[count] = offset;
+      lengths[count] = length;
+      count++;
+      if (schema == null) {
+        schema = segment.read(offset, length);
+      }
+      Long fingerprint = RepositoryUtil.fingerprint64(schema);
+      if (!fingerprintToId.containsKey(fingerprint)) {
+        fingerprintToId.put(fingerprint, id);
+      }
+      latest = new SchemaEntry(String.valueOf(id), schema);
+    }
+
+    @Override
+    public SubjectConfig getConfig() {
+      return config;
+    }
+
+    @Override
+    public synchronized SchemaEntry register(String schema)
+        throws SchemaValidationException {
+      isValid();
+      RepositoryUtil.validateSchemaOrSubject(schema);
+      SchemaEntry entry = lookupBySchema(schema);
+      if (entry == null) {
+        Segment[] writtenTo = new Segment[1];
+        byte[] payload = schema.getBytes(UTF8);
+        int offset = append(SCHEMA_RECORD, getName(), count, payload, writtenTo);
+        addLocation(count, writtenTo[0], offset, payload.length, schema);
+        entry = latest;
+      }
+      return entry;
+    }
+
+    @Override
+    public synchronized SchemaEntry registerIfLatest(String schema,
+        SchemaEntry latest) throws SchemaValidationException {
+      isValid();
+      if (latest == this.latest // both null
+          || (latest != null && latest.equals(this.latest))) {
+        return register(schema);
+      } else {
+        return null;
+      }
+    }
+
+    @Override
+    public synchronized SchemaEntry lookupBySchema(String schema) {
+      isValid();
+      RepositoryUtil.validateSchemaOrSubject(schema);
+      Integer id = fingerprintToId.get(RepositoryUtil.fingerprint64(schema));
+      if (id != null && schema.equals(read(id))) {
+        return new SchemaEntry(id.toString(), schema);
+      }
+      if (id != null) {
+        // fingerprint collision with another schema of this subject
+        for (int i = 0; i < count; i++) {
+          if (schema.equals(read(i))) {
+            return new SchemaEntry(String.valueOf(i), schema);
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public synchronized SchemaEntry lookupById(String id) {
+      isValid();
+      int index = indexOf(id);
+      return index < 0 ? null : new SchemaEntry(id, read(index));
+    }
+
+    @Override
+    public synchronized ByteBuffer lookupSchemaBytesById(String id) {
+      isValid();
+      int index = indexOf(id);
+      // a read-only view of the segment, shared by every reader
+      return index < 0 ? null : locations[index].slice(offsets[index], lengths[index]);
+    }
+
+    // the index of a registered id, or -1, only for canonical ids since
+    // "01" or "+1" are not the id of the second schema
+    private int indexOf(String id) {
+      int index;
+      try {
+        index = Integer.parseInt(id);
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+      return index >= 0 && index < count && String.valueOf(index).equals(id) ? index : -1;
+    }
+
+    @Override
+    public synchronized SchemaEntry latest() {
+      isValid();
+      return latest;
+    }
+
+    @Override
+    public synchronized Iterable<SchemaEntry> allEntries() {
+      isValid();
+      List<SchemaEntry> entries = new ArrayList<SchemaEntry>(count);
+      for (int i = count - 1; i >= 0; i--) {
+        entries.add(new SchemaEntry(String.valueOf(i), read(i)));
+      }
+      return entries;
+    }
+
+    @Override
+    public boolean integralKeys() {
+      return true;
+    }
+
+    private String read(int id) {
+      return locations[id].read(offsets[id], lengths[id]);
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers for a short time the ids and the schemas a {@link Subject} did
+ * not find, so that asking for them again does not reach the backend.
+ * <br/>
+ * Each kind of key has a fixed number of slots, picked by the hash of the
+ * key, and a miss replaces whatever its slot held, so that the memory used
+ * does not depend on how many distinct keys are asked for. A slot holds the
+ * length and the 64-bit fingerprint of the key rather than the key itself,
+ * which may be a large schema, so a schema which exists is only reported
+ * missing if both collide with those of a missing one.
+ * <br/>
+ * Misses are forgotten when a schema is registered through the subject, as
+ * well as those of reads which started before that.
+ */
+final class NegativeResultCache {
+
+  private static final int SLOTS = 64;
+
+  private final long ttlNanos;
+  // System.nanoTime() of the last registration
+  private volatile long invalidatedAt = System.nanoTime();
+  private final AtomicReferenceArray<Miss> missingIds = new AtomicReferenceArray<Miss>(SLOTS);
+  private final AtomicReferenceArray<Miss> missingSchemas = new AtomicReferenceArray<Miss>(SLOTS);
+
+  private static final class Miss {
+    private final int length;
+    private final long fingerprint;
+    // System.nanoTime() when the read started
+    private final long readAt;
+
+    private Miss(String key, long readAt) {
+      this.length = key.length();
+      this.fingerprint = RepositoryUtil.fingerprint64(key);
+      this.readAt = readAt;
+    }
+
+    private boolean matches(String key) {
+      return length == key.length() && fingerprint == RepositoryUtil.fingerprint64(key);
+    }
+  }
+
+  NegativeResultCache(long ttlMillis) {
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+  }
+
+  boolean isMissingId(String id, ReadConsistency consistency) {
+    return isMissing(missingIds, id, consistency);
+  }
+
+  boolean isMissingSchema(String schema, ReadConsistency consistency) {
+    return isMissing(missingSchemas, schema, consistency);
+  }
+
+  /**
+   * @param readAt the System.nanoTime() when the read which missed started
+   */
+  void addMissingId(String id, long readAt) {
+    add(missingIds, id, readAt);
+  }
+
+  /**
+   * @param readAt the System.nanoTime() when the read which missed started
+   */
+  void addMissingSchema(String schema, long readAt) {
+    add(missingSchemas, schema, readAt);
+  }
+
+  /**
+   * Forgets all misses, to be called once a registration succeeded.
+   */
+  void invalidate() {
+    invalidatedAt = System.nanoTime();
+  }
+
+  private boolean isMissing(AtomicReferenceArray<Miss> misses, String key, ReadConsistency consistency) {
+    if (consistency.getLevel() == ReadConsistency.Level.STRONG) {
+      return false;
+    }
+    int slot = slot(key);
+    Miss miss = misses.get(slot);
+    if (miss == null || !miss.matches(key)) {
+      return false;
+    }
+    long age = System.nanoTime() - miss.readAt;
+    if (age > ttlNanos || miss.readAt - invalidatedAt < 0) {
+      misses.compareAndSet(slot, miss, null);
+      return false;
+    }
+    return consistency.getLevel() == ReadConsistency.Level.SESSION
+        || consistency.accepts(TimeUnit.NANOSECONDS.toMillis(age));
+  }
+
+  private void add(AtomicReferenceArray<Miss> misses, String key, long readAt) {
+    if (readAt - invalidatedAt >= 0) {
+      misses.set(slot(key), new Miss(key, readAt));
+    }
+  }
+
+  private static int slot(String key) {
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (SLOTS - 1);
+  }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.util.Locale;
+
+/**
+ * How fresh the result of a read of a {@link Subject} must be, for the reads
+ * whose result may change: the latest schema and the list of schemas, and
+ * lookups of schemas which are not registered yet.
+ * <li>
+ * {@link #STRONG} reads reflect every registration acknowledged before they
+ * started, whichever instance made it. They may cost a round trip to the
+ * backend.</li>
+ * <li>
+ * {@link #SESSION} reads reflect the registrations made through the same
+ * {@link Repository} and never go back in time. This is what the plain read
+ * methods of {@link Subject} provide.</li>
+ * <li>
+ * {@link #boundedStaleness(long)} reads may be served from a cache, as long as
+ * what they return was read from the backend no longer ago than the maximum
+ * age.</li>
+ * <br/>
+ * Backends whose instances do not share their state with other instances
+ * serve all levels the same way.
+ */
+public final class ReadConsistency {
+
+  /** The name of the REST query parameter holding the level */
+  public static final String PARAM = "consistency";
+  /** The name of the REST query parameter holding the maximum age, in milliseconds */
+  public static final String MAX_AGE_PARAM = "max-age";
+
+  public enum Level {
+    STRONG, SESSION, BOUNDED_STALENESS;
+
+    /** @return the name of the level in REST query parameters */
+    public String getParamValue() {
+      return name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+    }
+  }
+
+  public static final ReadConsistency STRONG = new ReadConsistency(Level.STRONG, 0);
+  public static final ReadConsistency SESSION = new ReadConsistency(Level.SESSION, 0);
+
+  private final Level level;
+  private final long maxAgeMillis;
+
+  private ReadConsistency(Level level, long maxAgeMillis) {
+    this.level = level;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * @param maxAgeMillis how long ago, in milliseconds, what is returned may
+   * have been read from the backend. Must not be negative.
+   */
+  public static ReadConsistency boundedStaleness(long maxAgeMillis) {
+    if (maxAgeMillis < 0) {
+      throw new IllegalArgumentException("Negative maximum age: " + maxAgeMillis);
+    }
+    return new ReadConsistency(Level.BOUNDED_STALENESS, maxAgeMillis);
+  }
+
+  /**
+   * Parses the REST query parameters of a read.
+   *
+   * @param level the name of the level, or null for {@link #SESSION}
+   * @param maxAgeMillis the maximum age, required for bounded staleness and
+   * ignored otherwise
+   * @throws IllegalArgumentException if the parameters are invalid
+   */
+  public static ReadConsistency parse(String level, String maxAgeMillis) {
+    if (level == null || level.isEmpty() || level.equals(Level.SESSION.getParamValue())) {
+      return SESSION;
+    } else if (level.equals(Level.STRONG.getParamValue())) {
+      return STRONG;
+    } else if (level.equals(Level.BOUNDED_STALENESS.getParamValue())) {
+      if (maxAgeMillis == null || maxAgeMillis.isEmpty()) {
+        throw new IllegalArgumentException("Bounded staleness requires a " + MAX_AGE_PARAM);
+      }
+      try {
+        return boundedStaleness(Long.parseLong(maxAgeMillis));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid " + MAX_AGE_PARAM + ": " + maxAgeMillis);
+      }
+    }
+    throw new IllegalArgumentException("Invalid " + PARAM + ": " + level);
+  }
+
+  public Level getLevel() {
+    return level;
+  }
+
+  /** @return the maximum age in milliseconds, 0 unless bounded staleness */
+  public long getMaxAgeMillis() {
+    return maxAgeMillis;
+  }
+
+  /**
+   * @return whether something read from the backend the provided number of
+   * milliseconds ago may be returned without reading it again
+   */
+  public boolean accepts(long ageMillis) {
+    return level == Level.BOUNDED_STALENESS && ageMillis <= maxAgeMillis;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * level.hashCode() + (int) (maxAgeMillis ^ (maxAgeMillis >>> 32));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null || getClass() != obj.getClass())
+      return false;
+    ReadConsistency other = (ReadConsistency) obj;
+    return level == other.level && maxAgeMillis == other.maxAgeMillis;
+  }
+
+  @Override
+  public String toString() {
+    return level == Level.BOUNDED_STALENESS ?
+        level.getParamValue() + "(" + maxAgeMillis + "ms)" : level.getParamValue();
+  }
+
+}
@@ -18,35 +18,59 @@
 
 package org.schemarepo;
 
+import java.util.Collections;
+import java.util.Map;
+
 import javax.inject.Inject;
 
 /**
  * <p>
  * A {@link RepositoryCache} composes a {@link SubjectCache} with a
  * {@link SchemaEntryCache.Factory}, using
- * {@link Subject#cacheWith(Subject, SchemaEntryCache)} to wrap {@link Subject}
+ * {@link Subject#cacheWith(Subject, SchemaEntryCache, long)} to wrap {@link Subject}
  * instances prior to insertion into the {@link SubjectCache}.
  */
 public class RepositoryCache implements SubjectCache {
 
   private final SubjectCache subjects;
   private final SchemaEntryCache.Factory entryCacheFactory;
+  private final long negativeResultTtlMillis;
 
   @Inject
   public RepositoryCache(SubjectCache subjects,
       SchemaEntryCache.Factory entryCacheFactory) {
+    this(subjects, entryCacheFactory, 0);
+  }
+
+  /**
+   * @param negativeResultTtlMillis how long the subjects report the ids and
+   * schemas which were not found missing without looking them up again, or 0
+   * not to cache them
+   */
+  public RepositoryCache(SubjectCache subjects,
+      SchemaEntryCache.Factory entryCacheFactory, long negativeResultTtlMillis) {
     this.subjects = subjects;
     this.entryCacheFactory = entryCacheFactory;
+    this.negativeResultTtlMillis = negativeResultTtlMillis;
   }
 
   @Override
   public Subject add(Subject entry) {
     return subjects.add(Subject.cacheWith(entry,
-        entryCacheFactory.createSchemaEntryCache()));
+        entryCacheFactory.createSchemaEntryCache(), negativeResultTtlMillis));
   }
 
   @Override
   public Subject lookup(String name) {
     return subjects.lookup(name);
   }
+
+  /**
+   * Expose runtime statistics of the cache, such as hits and evictions, as
+   * properties.
+   * @return Map representing statistics; note that the actual implementation may be immutable
+   */
+  public Map<String, String> exposeStatistics() {
+    return Collections.emptyMap();
+  }
 }
@@ -20,6 +20,7 @@ package org.schemarepo;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -46,6 +47,18 @@ import java.util.Properties;
  * </p>
  */
 public final class RepositoryUtil {
+  private static final long FINGERPRINT_EMPTY = 0xc15d213aa4d7a795L;
+  private static final long[] FINGERPRINT_TABLE = new long[256];
+  static {
+    for (int i = 0; i < 256; i++) {
+      long fp = i;
+      for (int j = 0; j < 8; j++) {
+        fp = (fp >>> 1) ^ (FINGERPRINT_EMPTY & -(fp & 1L));
+      }
+      FINGERPRINT_TABLE[i] = fp;
+    }
+  }
+
   private RepositoryUtil() {
   }
 
@@ -137,6 +150,39 @@ public final class RepositoryUtil {
     }
   }
 
+  /**
+   * Computes the 64-bit Rabin fingerprint (CRC-64-AVRO) of the UTF-8 encoding
+   * of the provided schema. Equal schemas always have equal fingerprints, but
+   * distinct schemas may collide, so a fingerprint match must be confirmed
+   * against the actual schema before it is trusted.
+   */
+  public static long fingerprint64(String schema) {
+    return fingerprint64(getUtf8Bytes(schema));
+  }
+
+  /**
+   * Computes the 64-bit Rabin fingerprint (CRC-64-AVRO) of the provided bytes.
+   */
+  public static long fingerprint64(byte[] bytes) {
+    long fp = FINGERPRINT_EMPTY;
+    for (byte b : bytes) {
+      fp = (fp >>> 8) ^ FINGERPRINT_TABLE[(int) (fp ^ b) & 0xff];
+    }
+    return fp;
+  }
+
+  /**
+   * Encodes the provided string as UTF-8.
+   */
+  public static byte[] getUtf8Bytes(String str) {
+    try {
+      return str.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      // every JVM is required to support UTF-8
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Returns an immutable Map<String, String> from the properties provided.
    * Includes any default values that exist in the properties.
@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A content-addressed store of schemas, shared by all of the subjects of a
+ * backend, so that a schema registered in many subjects is only stored once.
+ * <br/>
+ * <br/>
+ * Each schema is stored as a blob keyed by the SHA-256 hash of its UTF-8
+ * encoding, and subjects store a reference to it instead of the schema itself:
+ * a NUL byte followed by "sha256:" and the hash in hex. Since a schema starting
+ * with a NUL character could be mistaken for a reference, such a schema is
+ * always stored as a blob. Anything else is a schema stored as is, so content
+ * written before deduplication was enabled remains readable. <br/>
+ * <br/>
+ * Every schema read through a reference is interned, so that all of the
+ * caches holding it share a single copy for as long as any of them does.
+ * Blobs are never removed.
+ */
+public abstract class SchemaBlobStore {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte[] REFERENCE_PREFIX = "\u0000sha256:".getBytes(UTF8);
+  private static final int HASH_LENGTH = 64;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final boolean deduplicate;
+  private final ConcurrentHashMap<String, HashedReference> interned =
+      new ConcurrentHashMap<String, HashedReference>();
+  private final ReferenceQueue<String> collected = new ReferenceQueue<String>();
+
+  /**
+   * @param deduplicate whether new schemas are stored as blobs, otherwise
+   * only schemas which could be mistaken for a reference are, and existing
+   * references are still resolved
+   */
+  protected SchemaBlobStore(boolean deduplicate) {
+    this.deduplicate = deduplicate;
+  }
+
+  /**
+   * @return the content of the blob with the provided hash, or null if there
+   * is none
+   */
+  protected abstract byte[] readBlob(String hash) throws IOException;
+
+  /**
+   * Stores a blob unless one with the same hash is already stored. Must be
+   * durable once it returns if the reference to it is.
+   */
+  protected abstract void writeBlob(String hash, byte[] content) throws IOException;
+
+  public boolean isDeduplicating() {
+    return deduplicate;
+  }
+
+  /**
+   * Prepares a schema for storage in a subject, storing it as a blob first if
+   * need be.
+   *
+   * @return the content to store in the subject, either the UTF-8 encoded
+   * schema or a reference to its blob
+   */
+  public byte[] store(String schema) throws IOException {
+    byte[] content = RepositoryUtil.getUtf8Bytes(schema);
+    if (!deduplicate && (content.length == 0 || content[0] != 0)) {
+      return content;
+    }
+    String hash = hash(content);
+    writeBlob(hash, content);
+    intern(hash, schema);
+    return reference(hash);
+  }
+
+  /**
+   * Resolves content stored in a subject into the schema it holds.
+   *
+   * @throws IOException if the content refers to a blob which is missing
+   */
+  public String load(byte[] stored) throws IOException {
+    return load(stored, null);
+  }
+
+  /**
+   * {@link #load(byte[])} for callers which read the blob the content refers
+   * to already, such as along with others in a batch.
+   *
+   * @param blob the content of the blob the provided content refers to, or
+   * null to read it if need be
+   */
+  public String load(byte[] stored, byte[] blob) throws IOException {
+    String hash = referencedHash(stored);
+    if (hash == null) {
+      return new String(stored, UTF8);
+    }
+    String schema = lookupInterned(hash);
+    if (schema == null) {
+      schema = intern(hash, new String(blob != null ? blob : loadBlob(hash), UTF8));
+    }
+    return schema;
+  }
+
+  /**
+   * Resolves content stored in a subject into the UTF-8 encoded schema it
+   * holds, without decoding it.
+   *
+   * @throws IOException if the content refers to a blob which is missing
+   */
+  public byte[] loadBytes(byte[] stored) throws IOException {
+    String hash = referencedHash(stored);
+    return hash == null ? stored : loadBlob(hash);
+  }
+
+  private byte[] loadBlob(String hash) throws IOException {
+    byte[] content = readBlob(hash);
+    if (content == null) {
+      throw new IOException("Missing schema blob " + hash);
+    }
+    return content;
+  }
+
+  /**
+   * @return the hash of the blob the provided content refers to, or null if
+   * it is a schema stored as is
+   */
+  public static String referencedHash(byte[] stored) {
+    if (stored == null || stored.length != REFERENCE_PREFIX.length + HASH_LENGTH) {
+      return null;
+    }
+    for (int i = 0; i < REFERENCE_PREFIX.length; i++) {
+      if (stored[i] != REFERENCE_PREFIX[i]) {
+        return null;
+      }
+    }
+    return new String(stored, REFERENCE_PREFIX.length, HASH_LENGTH, UTF8);
+  }
+
+  static byte[] reference(String hash) {
+    byte[] hashBytes = hash.getBytes(UTF8);
+    byte[] result = Arrays.copyOf(REFERENCE_PREFIX, REFERENCE_PREFIX.length + hashBytes.length);
+    System.arraycopy(hashBytes, 0, result, REFERENCE_PREFIX.length, hashBytes.length);
+    return result;
+  }
+
+  /**
+   * @return the SHA-256 hash of the provided content, in lower case hex
+   */
+  public static String hash(byte[] content) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256").digest(content);
+    } catch (NoSuchAlgorithmException e) {
+      // every JVM is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+    char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX[digest[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  private String lookupInterned(String hash) {
+    HashedReference ref = interned.get(hash);
+    return ref == null ? null : ref.get();
+  }
+
+  private String intern(String hash, String schema) {
+    purge();
+    while (true) {
+      HashedReference ref = new HashedReference(hash, schema, collected);
+      HashedReference existing = interned.putIfAbsent(hash, ref);
+      if (existing == null) {
+        return schema;
+      }
+      String current = existing.get();
+      if (current != null) {
+        return current;
+      }
+      // the previous copy was collected in the meantime
+      interned.remove(hash, existing);
+    }
+  }
+
+  private void purge() {
+    HashedReference ref;
+    while ((ref = (HashedReference) collected.poll()) != null) {
+      interned.remove(ref.hash, ref);
+    }
+  }
+
+  private static final class HashedReference extends WeakReference<String> {
+    private final String hash;
+
+    private HashedReference(String hash, String schema, ReferenceQueue<String> queue) {
+      super(schema, queue);
+      this.hash = hash;
+    }
+  }
+}
@@ -18,12 +18,16 @@
 
 package org.schemarepo;
 
+import java.nio.ByteBuffer;
+
 /**
  * {@link SchemaEntry} is composed of a schema and its corresponding id.
  */
 public final class SchemaEntry {
   private final String id;
   private final String schema;
+  // the schema encoded as UTF-8, encoded on first use
+  private volatile ByteBuffer schemaBytes;
 
   /**
    * Primary constructor taking a literal id and schema.
@@ -57,6 +61,20 @@ public final class SchemaEntry {
     return schema;
   }
 
+  /**
+   * @return a read-only view of the schema encoded as UTF-8, which is only
+   *         encoded once for this entry
+   */
+  ByteBuffer getSchemaBytes() {
+    ByteBuffer bytes = schemaBytes;
+    if (bytes == null) {
+      // racing readers encode the same bytes, either of which is kept
+      bytes = ByteBuffer.wrap(RepositoryUtil.getUtf8Bytes(schema)).asReadOnlyBuffer();
+      schemaBytes = bytes;
+    }
+    return bytes.duplicate();
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
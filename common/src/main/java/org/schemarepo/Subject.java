@@ -18,8 +18,11 @@
 
 package org.schemarepo;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link Subject} is a collection of mutually compatible Schemas. <br/>
@@ -32,7 +35,8 @@ import java.util.List;
  * Caching of schemas is pluggable via
  * {@link #cacheWith(Subject, SchemaEntryCache)}. A {@link Subject} can only
  * cache the schema to id mappings, as other properties of a Subject are not
- * safe to cache. <br/>
+ * safe to cache, except for the latest schema when the caller accepts a
+ * bounded staleness, see {@link ReadConsistency}. <br/>
  * <br/>
  * A {@link Subject} has a few basic methods for interacting with Schemas:
  * <li>
@@ -156,6 +160,23 @@ public abstract class Subject {
    */
   public abstract SchemaEntry lookupById(String id);
 
+  /**
+   * Lookup the schema with the given id as the UTF-8 encoded bytes it is
+   * stored as, for callers which only pass it on, such as into an HTTP
+   * response, and so need not decode it into a String and encode it again.
+   * Backends which cannot provide the stored bytes return null, in which
+   * case callers fall back to {@link #lookupById(String)}.
+   *
+   * @param id
+   *          the id of the schema to look up
+   * @return A buffer holding the encoded schema between its position and
+   *         limit, which must not be modified, or null if no such schema is
+   *         registered or the backend cannot provide its stored bytes
+   */
+  public ByteBuffer lookupSchemaBytesById(String id) {
+    return null;
+  }
+
   /**
    * Lookup the most recently registered schema for the given subject. This
    * result is not cacheable, since the latest schema may change.
@@ -175,6 +196,40 @@ public abstract class Subject {
    */
   public abstract Iterable<SchemaEntry> allEntries();
 
+  /**
+   * {@link #lookupBySchema(String)} with the provided {@link ReadConsistency},
+   * which only matters if the schema is not found. Backends which do not share
+   * their state with other instances ignore it.
+   */
+  public SchemaEntry lookupBySchema(String schema, ReadConsistency consistency) {
+    return lookupBySchema(schema);
+  }
+
+  /**
+   * {@link #lookupById(String)} with the provided {@link ReadConsistency},
+   * which only matters if no schema is found. Backends which do not share
+   * their state with other instances ignore it.
+   */
+  public SchemaEntry lookupById(String id, ReadConsistency consistency) {
+    return lookupById(id);
+  }
+
+  /**
+   * {@link #latest()} with the provided {@link ReadConsistency}. Backends which
+   * do not share their state with other instances ignore it.
+   */
+  public SchemaEntry latest(ReadConsistency consistency) {
+    return latest();
+  }
+
+  /**
+   * {@link #allEntries()} with the provided {@link ReadConsistency}. Backends
+   * which do not share their state with other instances ignore it.
+   */
+  public Iterable<SchemaEntry> allEntries(ReadConsistency consistency) {
+    return allEntries();
+  }
+
   /**
    * @return The name of the {@link Subject}
    */
@@ -313,23 +368,47 @@ public abstract class Subject {
    *         cache is null, returns the provided subject without wrapping it.
    */
   public static Subject cacheWith(Subject subject, SchemaEntryCache cache) {
+    return cacheWith(subject, cache, 0);
+  }
+
+  /**
+   * Create a {@link Subject} that caches id to schema mappings using the
+   * {@link SchemaEntryCache} provided, as well as the ids and schemas which
+   * were not found, for the provided time.
+   *
+   * @param negativeResultTtlMillis
+   *          how long ids and schemas which were not found are reported
+   *          missing without asking the provided subject again, unless a
+   *          schema is registered through the returned subject meanwhile, or 0
+   *          to always ask
+   * @see #cacheWith(Subject, SchemaEntryCache)
+   */
+  public static Subject cacheWith(Subject subject, SchemaEntryCache cache, long negativeResultTtlMillis) {
     return (null == subject || null == cache) ?
-        subject : new CachingSubject(subject, cache);
+        subject : new CachingSubject(subject, cache,
+        negativeResultTtlMillis > 0 ? new NegativeResultCache(negativeResultTtlMillis) : null);
   }
 
   private static class CachingSubject extends DelegatingSubject {
     private final SchemaEntryCache cache;
+    // null if ids and schemas which were not found are not cached
+    private final NegativeResultCache misses;
+    // the latest entry as last read, for reads which accept a bounded staleness
+    private final AtomicReference<LatestRead> latestRead =
+        new AtomicReference<LatestRead>(LatestRead.invalid());
 
-    private CachingSubject(Subject delegate, SchemaEntryCache cache) {
+    private CachingSubject(Subject delegate, SchemaEntryCache cache, NegativeResultCache misses) {
       super(delegate);
       this.cache = cache;
+      this.misses = misses;
     }
 
     @Override
     public SchemaEntry register(String schema) throws SchemaValidationException {
       SchemaEntry entry = cache.lookupBySchema(schema);
       if (entry == null) {
-        return cache.add(super.register(schema));
+        latestRead.set(LatestRead.invalid());
+        return registered(cache.add(super.register(schema)));
       }
       return entry;
     }
@@ -337,30 +416,114 @@ public abstract class Subject {
     @Override
     public SchemaEntry registerIfLatest(String schema, SchemaEntry latest)
         throws SchemaValidationException {
-      return cache.add(super.registerIfLatest(schema, latest));
+      latestRead.set(LatestRead.invalid());
+      return registered(cache.add(super.registerIfLatest(schema, latest)));
+    }
+
+    private SchemaEntry registered(SchemaEntry entry) {
+      if (entry != null && misses != null) {
+        misses.invalidate();
+      }
+      return entry;
     }
 
     @Override
     public SchemaEntry lookupBySchema(String schema) {
+      return lookupBySchema(schema, ReadConsistency.SESSION);
+    }
+
+    @Override
+    public SchemaEntry lookupBySchema(String schema, ReadConsistency consistency) {
       SchemaEntry entry = cache.lookupBySchema(schema);
+      if (entry != null) {
+        return entry;
+      }
+      if (misses == null) {
+        return cache.add(super.lookupBySchema(schema, consistency));
+      }
+      if (misses.isMissingSchema(schema, consistency)) {
+        return null;
+      }
+      long readAt = System.nanoTime();
+      entry = cache.add(super.lookupBySchema(schema, consistency));
       if (entry == null) {
-        return cache.add(super.lookupBySchema(schema));
+        misses.addMissingSchema(schema, readAt);
       }
       return entry;
     }
 
     @Override
     public SchemaEntry lookupById(String id) {
+      return lookupById(id, ReadConsistency.SESSION);
+    }
+
+    @Override
+    public SchemaEntry lookupById(String id, ReadConsistency consistency) {
       SchemaEntry entry = cache.lookupById(id);
+      if (entry != null) {
+        return entry;
+      }
+      if (misses == null) {
+        return cache.add(super.lookupById(id, consistency));
+      }
+      if (misses.isMissingId(id, consistency)) {
+        return null;
+      }
+      long readAt = System.nanoTime();
+      entry = cache.add(super.lookupById(id, consistency));
       if (entry == null) {
-        return cache.add(super.lookupById(id));
+        misses.addMissingId(id, readAt);
+      }
+      return entry;
+    }
+
+    /**
+     * Serves cached entries and ids known to be missing without asking the
+     * provided subject, in which case callers fall back to
+     * {@link #lookupById(String)}, which is served from the caches as well.
+     */
+    @Override
+    public ByteBuffer lookupSchemaBytesById(String id) {
+      SchemaEntry entry = cache.lookupById(id);
+      if (entry != null) {
+        return entry.getSchemaBytes();
+      }
+      if (misses != null && misses.isMissingId(id, ReadConsistency.SESSION)) {
+        return null;
       }
+      return super.lookupSchemaBytesById(id);
+    }
+
+    @Override
+    public SchemaEntry latest() {
+      return latest(ReadConsistency.SESSION);
+    }
+
+    /**
+     * Serves the latest entry as last read if the consistency accepts its age,
+     * and remembers what is read otherwise, unless a registration was made
+     * through this subject meanwhile.
+     */
+    @Override
+    public SchemaEntry latest(ReadConsistency consistency) {
+      LatestRead last = latestRead.get();
+      long now = System.nanoTime();
+      if (last.valid && consistency.accepts(TimeUnit.NANOSECONDS.toMillis(now - last.readAt))) {
+        return last.entry;
+      }
+      SchemaEntry entry = cache.add(super.latest(consistency));
+      latestRead.compareAndSet(last, new LatestRead(entry, now));
       return entry;
     }
 
     @Override
     public Iterable<SchemaEntry> allEntries() {
-      Iterable<SchemaEntry> all = super.allEntries();
+      return allEntries(ReadConsistency.SESSION);
+    }
+
+    @Override
+    public Iterable<SchemaEntry> allEntries(ReadConsistency consistency) {
+      Iterable<SchemaEntry> all = super.allEntries(consistency);
       for (SchemaEntry entry : all) {
         cache.add(entry);
       }
@@ -368,4 +531,29 @@ public abstract class Subject {
     }
   }
 
+  private static final class LatestRead {
+    private final SchemaEntry entry;
+    // System.nanoTime() when the read started
+    private final long readAt;
+    private final boolean valid;
+
+    private LatestRead(SchemaEntry entry, long readAt) {
+      this(entry, readAt, true);
+    }
+
+    private LatestRead(SchemaEntry entry, long readAt, boolean valid) {
+      this.entry = entry;
+      this.readAt = readAt;
+      this.valid = valid;
+    }
+
+    /**
+     * @return a new instance each time, for reads which started before it was
+     * set to fail to replace it
+     */
+    private static LatestRead invalid() {
+      return new LatestRead(null, 0, false);
+    }
+  }
+
 }
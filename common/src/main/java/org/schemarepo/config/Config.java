@@ -31,6 +31,8 @@ public class Config {
   private static final String GLOBAL_PREFIX = "schema-repo.";
   public static final String REPO_CLASS = GLOBAL_PREFIX + "class";
   public static final String REPO_CACHE = GLOBAL_PREFIX + "cache";
+  public static final String CACHE_MAX_BYTES = REPO_CACHE + ".max-bytes";
+  public static final String CACHE_NEGATIVE_TTL = REPO_CACHE + ".negative-ttl";
   public static final String VALIDATOR_PREFIX = GLOBAL_PREFIX + "validator.";
 
   // Validation class related configs
@@ -54,6 +56,15 @@ public class Config {
   // Local file system backend configs
   private static final String LOCAL_FILE_SYSTEM_PREFIX = GLOBAL_PREFIX + "local-file-system.";
   public static final String LOCAL_FILE_SYSTEM_PATH = LOCAL_FILE_SYSTEM_PREFIX + "path";
+  public static final String LOCAL_FILE_SYSTEM_DURABILITY = LOCAL_FILE_SYSTEM_PREFIX + "durability";
+  public static final String LOCAL_FILE_SYSTEM_SNAPSHOT_INTERVAL = LOCAL_FILE_SYSTEM_PREFIX + "snapshot-interval";
+  public static final String LOCAL_FILE_SYSTEM_LAYOUT = LOCAL_FILE_SYSTEM_PREFIX + "layout";
+  public static final String LOCAL_FILE_SYSTEM_DEDUPLICATE = LOCAL_FILE_SYSTEM_PREFIX + "deduplicate";
+
+  // Log-structured local file system backend configs
+  private static final String LOG_STRUCTURED_PREFIX = GLOBAL_PREFIX + "log-structured.";
+  public static final String LOG_STRUCTURED_PATH = LOG_STRUCTURED_PREFIX + "path";
+  public static final String LOG_STRUCTURED_SEGMENT_SIZE = LOG_STRUCTURED_PREFIX + "segment-size";
 
   // ZooKeeper backend configs
   private static final String ZK_PREFIX = GLOBAL_PREFIX + "zookeeper.";
@@ -63,6 +74,14 @@ public class Config {
   public static final String ZK_CONNECTION_TIMEOUT = ZK_PREFIX + "connection-timeout";
   public static final String ZK_CURATOR_SLEEP_TIME_BETWEEN_RETRIES = ZK_PREFIX + "curator.sleep-time-between-retries";
   public static final String ZK_CURATOR_NUMBER_OF_RETRIES = ZK_PREFIX + "curator.number-of-retries";
+  public static final String ZK_DEDUPLICATE = ZK_PREFIX + "deduplicate";
+  public static final String ZK_LOCK_TIMEOUT = ZK_PREFIX + "lock-timeout";
+  public static final String ZK_OPTIMISTIC_REGISTRATION = ZK_PREFIX + "optimistic-registration";
+  public static final String ZK_LOCAL_CACHE_PATH = ZK_PREFIX + "local-cache-path";
+  public static final String ZK_COMPRESSION_THRESHOLD = ZK_PREFIX + "compression-threshold";
+  public static final String ZK_CHUNK_SIZE = ZK_PREFIX + "chunk-size";
+  public static final String ZK_LEADER_ELECTION = ZK_PREFIX + "leader-election";
+  public static final String ZK_ADVERTISED_URL = ZK_PREFIX + "advertised-url";
 
   // REST client config
   private static final String CLIENT_PREFIX = GLOBAL_PREFIX + "rest-client.";
@@ -79,6 +98,8 @@ public class Config {
   static {
     // General defaults
     DEFAULTS.setProperty(REPO_CACHE, InMemoryCache.class.getName());
+    DEFAULTS.setProperty(CACHE_MAX_BYTES, "67108864"); // 64 MB, for BoundedCache
+    DEFAULTS.setProperty(CACHE_NEGATIVE_TTL, "0"); // milliseconds, disabled
 
     // Jetty defaults
     DEFAULTS.setProperty(JETTY_HOST, "");
@@ -93,6 +114,15 @@ public class Config {
     // Logging defaults
     DEFAULTS.setProperty(LOGGING_ROUTE_JUL_TO_SLF4J, "true");
 
+    // Local file system backend defaults
+    DEFAULTS.setProperty(LOCAL_FILE_SYSTEM_DURABILITY, "none");
+    DEFAULTS.setProperty(LOCAL_FILE_SYSTEM_SNAPSHOT_INTERVAL, "300"); // seconds
+    DEFAULTS.setProperty(LOCAL_FILE_SYSTEM_LAYOUT, "flat");
+    DEFAULTS.setProperty(LOCAL_FILE_SYSTEM_DEDUPLICATE, "false");
+
+    // Log-structured backend defaults
+    DEFAULTS.setProperty(LOG_STRUCTURED_SEGMENT_SIZE, "67108864"); // 64 MB
+
     // Zookeeper backend defaults
     DEFAULTS.setProperty(ZK_ENSEMBLE, "");
     DEFAULTS.setProperty(ZK_PATH_PREFIX, "/schema-repo");
@@ -100,6 +130,14 @@ public class Config {
     DEFAULTS.setProperty(ZK_CONNECTION_TIMEOUT, "2000");
     DEFAULTS.setProperty(ZK_CURATOR_SLEEP_TIME_BETWEEN_RETRIES, "2000");
     DEFAULTS.setProperty(ZK_CURATOR_NUMBER_OF_RETRIES, "10");
+    DEFAULTS.setProperty(ZK_DEDUPLICATE, "false");
+    DEFAULTS.setProperty(ZK_LOCK_TIMEOUT, "30000");
+    DEFAULTS.setProperty(ZK_OPTIMISTIC_REGISTRATION, "false");
+    DEFAULTS.setProperty(ZK_LOCAL_CACHE_PATH, ""); // disabled
+    DEFAULTS.setProperty(ZK_COMPRESSION_THRESHOLD, "-1"); // disabled
+    DEFAULTS.setProperty(ZK_CHUNK_SIZE, "524288"); // 512 KB, half of ZK's default jute.maxbuffer
+    DEFAULTS.setProperty(ZK_LEADER_ELECTION, "false");
+    DEFAULTS.setProperty(ZK_ADVERTISED_URL, "");
 
     // Client defaults
     DEFAULTS.setProperty(CLIENT_RETURN_NONE_ON_EXCEPTIONS, "true");
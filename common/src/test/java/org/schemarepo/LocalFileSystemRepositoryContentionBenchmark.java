@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the read throughput of a {@link LocalFileSystemRepository} subject
+ * while another thread registers schemas into it without pause. Not run as
+ * part of the test suite; run its main method with the optional arguments
+ * <code>[readers] [seconds] [durability]</code>.
+ */
+public class LocalFileSystemRepositoryContentionBenchmark {
+
+  private static final String REPO_PATH = "target/benchmark/LocalFileSystemRepositoryContentionBenchmark/";
+  private static final int PRELOADED = 1000;
+
+  public static void main(String[] args) throws Exception {
+    int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    String durability = args.length > 2 ? args[2] : "fsync";
+
+    File dir = new File(REPO_PATH);
+    rmDir(dir);
+    LocalFileSystemRepository repo = new LocalFileSystemRepository(REPO_PATH, durability,
+        new ValidatorFactory.Builder().build());
+    try {
+      Subject subject = repo.register("benchmark", null);
+      for (int i = 0; i < PRELOADED; i++) {
+        subject.register(schema(i));
+      }
+      System.out.println("readers=" + readers + " seconds=" + seconds + " durability=" + durability);
+      run(subject, readers, seconds, false);
+      run(subject, readers, seconds, true);
+    } finally {
+      repo.close();
+      rmDir(dir);
+    }
+  }
+
+  private static void run(final Subject subject, int readers, int seconds, boolean writing)
+      throws Exception {
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final AtomicLong reads = new AtomicLong();
+    final AtomicLong writes = new AtomicLong();
+    final CountDownLatch done = new CountDownLatch(readers + (writing ? 1 : 0));
+
+    for (int r = 0; r < readers; r++) {
+      final Random random = new Random(r);
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          try {
+            while (!stop.get()) {
+              int i = random.nextInt(PRELOADED);
+              switch (i % 3) {
+              case 0:
+                subject.lookupById(String.valueOf(i));
+                break;
+              case 1:
+                subject.lookupBySchema(schema(i));
+                break;
+              default:
+                subject.latest();
+              }
+              count++;
+            }
+          } finally {
+            reads.addAndGet(count);
+            done.countDown();
+          }
+        }
+      }, "reader-" + r).start();
+    }
+    if (writing) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          try {
+            while (!stop.get()) {
+              subject.register("{\"type\":\"record\",\"name\":\"written_" + System.nanoTime() + "\"}");
+              count++;
+            }
+          } catch (SchemaValidationException e) {
+            throw new RuntimeException(e);
+          } finally {
+            writes.addAndGet(count);
+            done.countDown();
+          }
+        }
+      }, "writer").start();
+    }
+
+    Thread.sleep(seconds * 1000L);
+    stop.set(true);
+    done.await();
+    System.out.println((writing ? "with sustained writes: " : "reads only:            ")
+        + (reads.get() / seconds) + " reads/s, " + (writes.get() / seconds) + " writes/s");
+  }
+
+  private static String schema(int i) {
+    return "{\"type\":\"record\",\"name\":\"preloaded_" + i + "\"}";
+  }
+
+  private static void rmDir(File dir) {
+    if (!dir.exists() || !dir.isDirectory()) {
+      return;
+    }
+    for (String filename : dir.list()) {
+      File entry = new File(dir, filename);
+      if (entry.isDirectory()) {
+        rmDir(entry);
+      } else {
+        entry.delete();
+      }
+    }
+    dir.delete();
+  }
+}
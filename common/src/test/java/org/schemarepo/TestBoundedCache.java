@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBoundedCache extends
+    AbstractTestRepository<CacheRepository> {
+
+  @Override
+  protected CacheRepository createRepository() {
+    return new CacheRepository(new InMemoryRepository(new ValidatorFactory.Builder().build()), new BoundedCache(1024L));
+  }
+
+  @Test
+  public void testEvictionKeepsLookupsConsistent() throws SchemaValidationException {
+    CacheRepository cacheRepo = getRepo();
+    Subject subject = cacheRepo.register("sub", null);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(String.valueOf(i), subject.register("schema" + i).getId());
+    }
+    for (int i = 99; i >= 0; i--) {
+      Assert.assertEquals("schema" + i, subject.lookupById(String.valueOf(i)).getSchema());
+      Assert.assertEquals(String.valueOf(i), subject.lookupBySchema("schema" + i).getId());
+      Assert.assertEquals(String.valueOf(i), subject.register("schema" + i).getId());
+    }
+    Map<String, String> statistics = cacheRepo.exposeStatistics();
+    Assert.assertTrue(Long.parseLong(statistics.get("cache.bytes")) <= 1024);
+    Assert.assertTrue(Long.parseLong(statistics.get("cache.evictions")) > 0);
+    Assert.assertTrue(Long.parseLong(statistics.get("cache.misses")) > 0);
+  }
+
+  @Test
+  public void testReferencedEntriesAreKept() throws SchemaValidationException {
+    CacheRepository cacheRepo = getRepo();
+    Subject subject = cacheRepo.register("sub", null);
+    subject.register("hot");
+    for (int i = 0; i < 100; i++) {
+      subject.register("cold" + i);
+      subject.lookupById("0");
+    }
+    Map<String, String> statistics = cacheRepo.exposeStatistics();
+    Assert.assertEquals("100", statistics.get("cache.hits"));
+  }
+}
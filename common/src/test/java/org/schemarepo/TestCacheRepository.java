@@ -18,6 +18,11 @@
 
 package org.schemarepo;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
 public class TestCacheRepository extends
     AbstractTestRepository<CacheRepository> {
 
@@ -25,4 +30,92 @@ public class TestCacheRepository extends
   protected CacheRepository createRepository() {
     return new CacheRepository(new InMemoryRepository(new ValidatorFactory.Builder().build()), new InMemoryCache());
   }
+
+  @Test
+  public void testLatestWithBoundedStaleness() throws SchemaValidationException {
+    InMemoryRepository backend = new InMemoryRepository(new ValidatorFactory.Builder().build());
+    CacheRepository cacheRepo = new CacheRepository(backend, new InMemoryCache());
+    ReadConsistency stale = ReadConsistency.boundedStaleness(60000);
+    Subject subject = cacheRepo.register("sub", null);
+    subject.register("foo");
+    Assert.assertEquals("foo", subject.latest(stale).getSchema());
+    // registered behind the back of the cache
+    backend.lookup("sub").register("bar");
+    Assert.assertEquals("foo", subject.latest(stale).getSchema());
+    Assert.assertEquals("bar", subject.latest(ReadConsistency.STRONG).getSchema());
+    Assert.assertEquals("bar", subject.latest(stale).getSchema());
+    backend.lookup("sub").register("baz");
+    Assert.assertEquals("baz", subject.latest().getSchema());
+    // registrations through the cache are seen right away
+    subject.register("qux");
+    Assert.assertEquals("qux", subject.latest(stale).getSchema());
+  }
+
+  @Test
+  public void testNegativeResults() throws SchemaValidationException {
+    InMemoryRepository backend = new InMemoryRepository(new ValidatorFactory.Builder().build());
+    CacheRepository cacheRepo = new CacheRepository(backend, new InMemoryCache(60000L));
+    Subject subject = cacheRepo.register("sub", null);
+    Assert.assertNull(subject.lookupById("0"));
+    Assert.assertNull(subject.lookupBySchema("foo"));
+    // registered behind the back of the cache, which still remembers the misses
+    backend.lookup("sub").register("foo");
+    Assert.assertNull(subject.lookupById("0"));
+    Assert.assertNull(subject.lookupBySchema("foo"));
+    Assert.assertNull(subject.lookupById("0", ReadConsistency.boundedStaleness(60000)));
+    Assert.assertEquals("foo", subject.lookupById("0", ReadConsistency.STRONG).getSchema());
+    Assert.assertEquals("0", subject.lookupBySchema("foo").getId());
+
+    // registrations through the cache forget the misses
+    Assert.assertNull(subject.lookupById("1"));
+    Assert.assertNull(subject.lookupById("2"));
+    backend.lookup("sub").register("bar");
+    subject.register("baz");
+    Assert.assertEquals("bar", subject.lookupById("1").getSchema());
+    Assert.assertEquals("baz", subject.lookupById("2").getSchema());
+  }
+
+  @Test
+  public void testSchemaBytesAreServedFromTheCaches() throws SchemaValidationException {
+    InMemoryRepository backend = new InMemoryRepository(new ValidatorFactory.Builder().build());
+    final AtomicInteger backendReads = new AtomicInteger();
+    Subject counting = new DelegatingSubject(backend.register("sub", null)) {
+      @Override
+      public SchemaEntry lookupById(String id, ReadConsistency consistency) {
+        backendReads.incrementAndGet();
+        return super.lookupById(id, consistency);
+      }
+
+      @Override
+      public ByteBuffer lookupSchemaBytesById(String id) {
+        backendReads.incrementAndGet();
+        return super.lookupSchemaBytesById(id);
+      }
+    };
+    Subject subject = Subject.cacheWith(counting, new InMemorySchemaEntryCache(), 60000L);
+    subject.register("foo");
+    ByteBuffer bytes = subject.lookupSchemaBytesById("0");
+    Assert.assertEquals(ByteBuffer.wrap(RepositoryUtil.getUtf8Bytes("foo")), bytes);
+    Assert.assertTrue(bytes.isReadOnly());
+    // every reader gets its own view of the same bytes
+    bytes.get();
+    Assert.assertEquals(ByteBuffer.wrap(RepositoryUtil.getUtf8Bytes("foo")), subject.lookupSchemaBytesById("0"));
+    Assert.assertEquals(0, backendReads.get());
+
+    Assert.assertNull(subject.lookupById("1"));
+    Assert.assertEquals(1, backendReads.get());
+    Assert.assertNull(subject.lookupSchemaBytesById("1"));
+    Assert.assertEquals(1, backendReads.get());
+  }
+
+  @Test
+  public void testNegativeResultsExpire() throws Exception {
+    InMemoryRepository backend = new InMemoryRepository(new ValidatorFactory.Builder().build());
+    CacheRepository cacheRepo = new CacheRepository(backend, new InMemoryCache(1L));
+    Subject subject = cacheRepo.register("sub", null);
+    Assert.assertNull(subject.lookupById("0"));
+    backend.lookup("sub").register("foo");
+    Thread.sleep(10);
+    Assert.assertEquals("foo", subject.lookupById("0").getSchema());
+  }
 }
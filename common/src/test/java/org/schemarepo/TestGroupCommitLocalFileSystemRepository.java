@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs the {@link TestLocalFileSystemRepository} tests against a repository
+ * that makes registrations durable through its group commit journal.
+ */
+public class TestGroupCommitLocalFileSystemRepository extends TestLocalFileSystemRepository {
+
+  @Override
+  protected String getDurability() {
+    return "group-commit";
+  }
+
+  @Test
+  public void testInterruptedRegistration() throws Exception {
+    Subject subject = repo.register("interrupted", null);
+    Thread.currentThread().interrupt();
+    try {
+      Assert.assertEquals("0", subject.register("sc1").getId());
+    } finally {
+      Assert.assertTrue(Thread.interrupted());
+    }
+    // the journal is still usable
+    Assert.assertEquals("1", subject.register("sc2").getId());
+    repo.close();
+    repo = createRepository();
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), repo.lookup("interrupted").latest());
+  }
+
+  @Test
+  public void testClosingWritesWhatIsAwaited() throws Exception {
+    File file = new File("target/test/TestGroupCommitLocalFileSystemRepository.journal");
+    file.delete();
+    file.getParentFile().mkdirs();
+    final GroupCommitJournal journal = new GroupCommitJournal(file);
+    journal.readRecords();
+    long last = 0;
+    for (int i = 0; i < 1000; i++) {
+      last = journal.append(new byte[100]);
+    }
+    final long awaited = last;
+    final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          journal.awaitDurable(awaited);
+        } catch (IOException e) {
+          failure.set(e);
+        }
+      }
+    };
+    waiter.start();
+    journal.close();
+    waiter.join();
+    Assert.assertNull(failure.get());
+
+    GroupCommitJournal reopened = new GroupCommitJournal(file);
+    try {
+      Assert.assertEquals(1000, reopened.readRecords().size());
+    } finally {
+      reopened.close();
+    }
+  }
+}
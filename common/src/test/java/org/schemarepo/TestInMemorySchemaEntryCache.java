@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.util.Iterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestInMemorySchemaEntryCache {
+
+  @Test
+  public void testLookups() {
+    InMemorySchemaEntryCache cache = new InMemorySchemaEntryCache();
+    SchemaEntry first = new SchemaEntry("0", "sc0");
+    Assert.assertSame(first, cache.add(first));
+    // sparse, integral ids and others are all found
+    for (String id : new String[] { "1", "17", "1000000", "01", "-1", "12345678901", "id" }) {
+      cache.add(new SchemaEntry(id, "sc" + id));
+    }
+    for (String id : new String[] { "0", "1", "17", "1000000", "01", "-1", "12345678901", "id" }) {
+      Assert.assertEquals(new SchemaEntry(id, "sc" + id), cache.lookupById(id));
+      Assert.assertEquals(new SchemaEntry(id, "sc" + id), cache.lookupBySchema("sc" + id));
+    }
+    Assert.assertTrue(cache.isIndexedDensely("1"));
+    Assert.assertFalse(cache.isIndexedDensely("1000000"));
+    Assert.assertNull(cache.lookupById("2"));
+    Assert.assertNull(cache.lookupById("001"));
+    Assert.assertNull(cache.lookupById("1000001"));
+    Assert.assertNull(cache.lookupBySchema("sc2"));
+  }
+
+  @Test
+  public void testManyIntegralIds() {
+    InMemorySchemaEntryCache cache = new InMemorySchemaEntryCache();
+    // newest first, as subjects list them
+    for (int id = 999; id >= 0; id--) {
+      cache.add(new SchemaEntry(String.valueOf(id), "sc" + id));
+    }
+    for (int id = 0; id < 1000; id++) {
+      Assert.assertEquals("sc" + id, cache.lookupById(String.valueOf(id)).getSchema());
+      Assert.assertTrue(cache.isIndexedDensely(String.valueOf(id)));
+    }
+  }
+
+  @Test
+  public void testAddingAgainKeepsTheFirstEntry() {
+    InMemorySchemaEntryCache cache = new InMemorySchemaEntryCache();
+    SchemaEntry first = new SchemaEntry("0", "sc0");
+    SchemaEntry second = new SchemaEntry("1", "sc1");
+    cache.add(first);
+    cache.add(second);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertSame(first, cache.add(new SchemaEntry("0", "sc0")));
+      Assert.assertSame(second, cache.add(new SchemaEntry("1", "sc1")));
+    }
+    // listed once each, most recently added first
+    Iterator<SchemaEntry> values = cache.values().iterator();
+    Assert.assertSame(second, values.next());
+    Assert.assertSame(first, values.next());
+    Assert.assertFalse(values.hasNext());
+  }
+}
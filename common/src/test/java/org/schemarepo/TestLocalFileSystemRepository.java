@@ -21,11 +21,16 @@ package org.schemarepo;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.schemarepo.config.Config;
 import org.slf4j.LoggerFactory;
 
 public class TestLocalFileSystemRepository extends AbstractTestPersistentRepository<LocalFileSystemRepository> {
@@ -53,7 +58,24 @@ public class TestLocalFileSystemRepository extends AbstractTestPersistentReposit
 
   @Override
   protected LocalFileSystemRepository createRepository() {
-    return newRepo(REPO_PATH);
+    return new LocalFileSystemRepository(REPO_PATH, getDurability(), 0, getLayout(), isDeduplicating(),
+        new ValidatorFactory.Builder().build());
+  }
+
+  protected String getDurability() {
+    return Config.getDefault(Config.LOCAL_FILE_SYSTEM_DURABILITY);
+  }
+
+  protected String getLayout() {
+    return Config.getDefault(Config.LOCAL_FILE_SYSTEM_LAYOUT);
+  }
+
+  protected boolean isDeduplicating() {
+    return Boolean.valueOf(Config.getDefault(Config.LOCAL_FILE_SYSTEM_DEDUPLICATE));
+  }
+
+  private File subjectDir(String subjectName) {
+    return LocalFileSystemRepository.Layout.fromString(getLayout()).subjectDir(new File(REPO_PATH), subjectName);
   }
 
   private LocalFileSystemRepository newRepo(String path) {
@@ -99,6 +121,271 @@ public class TestLocalFileSystemRepository extends AbstractTestPersistentReposit
     r.lookup("nothing");
   }
 
+  @Test
+  public void testCorruptSubjectDoesNotPreventStartup() throws Exception {
+    repo.register("good", null).register("sc1");
+    repo.register("bad", null).register("sc1");
+    repo.close();
+    // a schema file that is not referenced by the id file
+    new File(subjectDir("bad"), "7.schema").createNewFile();
+    touchLater(subjectDir("bad"));
+
+    repo = createRepository();
+    Assert.assertEquals("sc1", repo.lookup("good").lookupById("0").getSchema());
+    Subject bad = repo.lookup("bad");
+    Assert.assertNotNull(bad);
+    try {
+      bad.latest();
+      Assert.fail("Expected the corrupt subject to fail on access");
+    } catch (RuntimeException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testJournalReplay() throws Exception {
+    repo.register("journaled", null).register("sc1");
+    repo.close();
+
+    // simulate a crash right after a registration was journaled, while its id was being appended
+    GroupCommitJournal journal = new GroupCommitJournal(new File(REPO_PATH, ".journal"));
+    try {
+      journal.readRecords();
+      journal.append(LocalFileSystemRepository.journalRecord(
+          LocalFileSystemRepository.JOURNAL_SCHEMA, "journaled", 1, "sc2"));
+    } finally {
+      journal.close();
+    }
+    FileOutputStream idFile = new FileOutputStream(new File(subjectDir("journaled"), "schema_ids"), true);
+    try {
+      idFile.write('1');
+    } finally {
+      idFile.close();
+    }
+
+    repo = createRepository();
+    Subject journaled = repo.lookup("journaled");
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), journaled.latest());
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), journaled.lookupBySchema("sc1"));
+    Assert.assertEquals("2", journaled.register("sc3").getId());
+  }
+
+  @Test
+  public void testAbortedRegistrationsAreNotReplayed() throws Exception {
+    repo.register("journaled", null).register("sc1");
+    repo.close();
+
+    // simulate registrations which failed after they were journaled, the second one being retried
+    GroupCommitJournal journal = new GroupCommitJournal(new File(REPO_PATH, ".journal"));
+    try {
+      journal.readRecords();
+      journal.append(LocalFileSystemRepository.journalRecord(
+          LocalFileSystemRepository.JOURNAL_SUBJECT, "aborted", -1, ""));
+      journal.append(LocalFileSystemRepository.journalRecord(
+          LocalFileSystemRepository.JOURNAL_ABORT, "aborted", -1, ""));
+      journal.append(LocalFileSystemRepository.journalRecord(
+          LocalFileSystemRepository.JOURNAL_SCHEMA, "journaled", 1, "sc2"));
+      journal.append(LocalFileSystemRepository.journalRecord(
+          LocalFileSystemRepository.JOURNAL_ABORT, "journaled", 1, ""));
+      journal.awaitDurable(journal.append(LocalFileSystemRepository.journalRecord(
+          LocalFileSystemRepository.JOURNAL_SCHEMA, "journaled", 1, "sc3")));
+    } finally {
+      journal.close();
+    }
+
+    repo = createRepository();
+    Assert.assertNull(repo.lookup("aborted"));
+    Subject journaled = repo.lookup("journaled");
+    Assert.assertEquals(new SchemaEntry("1", "sc3"), journaled.latest());
+    Assert.assertNull(journaled.lookupBySchema("sc2"));
+  }
+
+  @Test
+  public void testFsyncDurability() throws Exception {
+    repo.close();
+    repo = new LocalFileSystemRepository(REPO_PATH, "fsync", new ValidatorFactory.Builder().build());
+    repo.register("synced", null).register("sc1");
+    repo.close();
+    repo = createRepository();
+    Assert.assertEquals("sc1", repo.lookup("synced").lookupById("0").getSchema());
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    Subject saved = repo.register("saved", null);
+    saved.register("sc1");
+    saved.register("sc2");
+    repo.register("modified", null).register("sc1");
+    repo.close();
+    Assert.assertTrue(new File(REPO_PATH, ".snapshot").exists());
+
+    // a registration made behind the back of the snapshot
+    FileOutputStream schemaFile = new FileOutputStream(new File(subjectDir("modified"), "1.schema"));
+    try {
+      schemaFile.write("sc2".getBytes("UTF-8"));
+    } finally {
+      schemaFile.close();
+    }
+    FileOutputStream idFile = new FileOutputStream(new File(subjectDir("modified"), "schema_ids"), true);
+    try {
+      idFile.write("1\n".getBytes("UTF-8"));
+    } finally {
+      idFile.close();
+    }
+    touchLater(subjectDir("modified"));
+
+    repo = createRepository();
+    saved = repo.lookup("saved");
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), saved.latest());
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), saved.lookupBySchema("sc1"));
+    Assert.assertEquals("2", saved.register("sc3").getId());
+    Subject modified = repo.lookup("modified");
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), modified.latest());
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), modified.lookupBySchema("sc2"));
+    repo.close();
+
+    repo = createRepository();
+    Assert.assertEquals(new SchemaEntry("2", "sc3"), repo.lookup("saved").latest());
+  }
+
+  @Test
+  public void testRemovedSubjectsAreDroppedFromTheSnapshot() throws Exception {
+    repo.register("kept", null).register("sc1");
+    repo.register("removed", null).register("sc1");
+    repo.close();
+    File snapshot = new File(REPO_PATH, ".snapshot");
+    long savedLength = snapshot.length();
+    rmDir(subjectDir("removed"));
+
+    repo = createRepository();
+    Assert.assertNull(repo.lookup("removed"));
+    repo.close();
+    Assert.assertTrue(snapshot.length() < savedLength);
+    repo = createRepository();
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), repo.lookup("kept").latest());
+  }
+
+  @Test
+  public void testCorruptSnapshotIsIgnored() throws Exception {
+    repo.register("subject", null).register("sc1");
+    repo.close();
+    FileOutputStream snapshot = new FileOutputStream(new File(REPO_PATH, ".snapshot"));
+    try {
+      snapshot.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+    } finally {
+      snapshot.close();
+    }
+
+    repo = createRepository();
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), repo.lookup("subject").latest());
+  }
+
+  @Test
+  public void testLookupSchemaBytesById() throws Exception {
+    StringBuilder large = new StringBuilder("\u00e9");
+    while (large.length() < 100000) {
+      large.append(large);
+    }
+    Subject sub = repo.register("bytes", null);
+    sub.register("sc1");
+    sub.register(large.toString());
+    Assert.assertEquals("sc1", decode(sub.lookupSchemaBytesById("0")));
+    Assert.assertEquals(large.toString(), decode(sub.lookupSchemaBytesById("1")));
+    // read once and shared, through views that readers cannot write through
+    ByteBuffer bytes = sub.lookupSchemaBytesById("0");
+    Assert.assertTrue(bytes.isReadOnly());
+    bytes.position(bytes.limit());
+    Assert.assertEquals("sc1", decode(sub.lookupSchemaBytesById("0")));
+    Assert.assertNull(sub.lookupSchemaBytesById("2"));
+    Assert.assertNull(sub.lookupSchemaBytesById("01"));
+    Assert.assertNull(sub.lookupSchemaBytesById("../bytes/0"));
+  }
+
+  static String decode(ByteBuffer bytes) {
+    return Charset.forName("UTF-8").decode(bytes.duplicate()).toString();
+  }
+
+  @Test
+  public void testSchemaStoredInSeveralSubjects() throws Exception {
+    repo.register("first", null).register("shared");
+    repo.register("second", null).register("shared");
+    // could be mistaken for a reference, so always stored as a blob
+    String nul = "\u0000" + "sha256:" + SchemaBlobStore.hash(new byte[0]);
+    repo.register("third", null).register(nul);
+    repo.close();
+
+    repo = createRepository();
+    String first = repo.lookup("first").lookupById("0").getSchema();
+    String second = repo.lookup("second").lookupById("0").getSchema();
+    Assert.assertEquals("shared", first);
+    Assert.assertEquals("shared", second);
+    Assert.assertEquals(nul, repo.lookup("third").latest().getSchema());
+    Assert.assertEquals("shared", decode(repo.lookup("second").lookupSchemaBytesById("0")));
+    int blobs = 0;
+    for (File bucket : listFiles(new File(REPO_PATH, ".blobs"))) {
+      blobs += listFiles(bucket).length;
+    }
+    if (isDeduplicating()) {
+      Assert.assertSame(first, second);
+      Assert.assertEquals(2, blobs);
+    } else {
+      Assert.assertEquals(1, blobs);
+    }
+  }
+
+  private static File[] listFiles(File dir) {
+    File[] files = dir.listFiles();
+    return files == null ? new File[0] : files;
+  }
+
+  @Test
+  public void testLayoutMigration() throws Exception {
+    String other = "flat".equals(getLayout()) ? "hashed" : "flat";
+    for (int i = 0; i < 20; i++) {
+      repo.register("subject" + i, null).register("sc" + i);
+    }
+    // a subject named like a bucket of the hashed layout
+    repo.register("ab", null).register("sc");
+    repo.close();
+
+    LocalFileSystemRepository.migrateLayout(REPO_PATH, other);
+    Assert.assertFalse(subjectDir("subject0").exists());
+    Assert.assertTrue(LocalFileSystemRepository.Layout.fromString(other)
+        .subjectDir(new File(REPO_PATH), "subject0").isDirectory());
+
+    // the layout is detected whatever the configuration says
+    repo = createRepository();
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals(new SchemaEntry("0", "sc" + i), repo.lookup("subject" + i).latest());
+    }
+    Assert.assertEquals(new SchemaEntry("0", "sc"), repo.lookup("ab").latest());
+    repo.register("new", null).register("sc");
+    repo.close();
+
+    LocalFileSystemRepository.migrateLayout(REPO_PATH, getLayout());
+    Assert.assertTrue(subjectDir("new").isDirectory());
+    repo = createRepository();
+    Assert.assertEquals(22, size(repo.subjects()));
+    Assert.assertEquals(new SchemaEntry("0", "sc"), repo.lookup("new").latest());
+  }
+
+  private static int size(Iterable<?> iterable) {
+    int size = 0;
+    for (Object ignored : iterable) {
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Pushes the modification time of a file forward, since it may have a
+   * resolution as coarse as a second and not reflect a modification made
+   * right after the repository was closed.
+   */
+  private static void touchLater(File file) {
+    file.setLastModified(file.lastModified() + 2000);
+  }
+
   private static void rmDir(File dir) {
     if (!dir.exists() || !dir.isDirectory()) {
       return;
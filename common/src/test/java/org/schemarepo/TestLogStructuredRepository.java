@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestLogStructuredRepository extends AbstractTestPersistentRepository<LogStructuredRepository> {
+  private static final String REPO_PATH = "target/test/TestLogStructuredRepository/";
+  // small enough for the tests to span several segments
+  private static final int SEGMENT_SIZE = 256;
+
+  @BeforeClass
+  public static void setup() {
+    rmDir(new File(REPO_PATH));
+  }
+
+  @After
+  public void cleanUp() throws Exception {
+    getRepo().close();
+    // see https://github.com/schema-repo/schema-repo/issues/12
+    if (System.getProperty("os.name", "").toLowerCase().contains("windows")) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    rmDir(new File(REPO_PATH));
+  }
+
+  @Override
+  protected LogStructuredRepository createRepository() {
+    return new LogStructuredRepository(REPO_PATH, SEGMENT_SIZE, new ValidatorFactory.Builder().build());
+  }
+
+  @Test
+  public void testSegmentRollover() throws Exception {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < SEGMENT_SIZE; i++) {
+      large.append('x');
+    }
+    Subject sub = repo.register("rollover", null);
+    for (int i = 0; i < 20; i++) {
+      sub.register("schema-" + i);
+    }
+    sub.register(large.toString());
+    repo.close();
+    Assert.assertTrue("Expected the log to span several segments",
+        new File(REPO_PATH).list().length > 3);
+
+    repo = createRepository();
+    sub = repo.lookup("rollover");
+    Assert.assertNotNull(sub);
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals(String.valueOf(i), sub.lookupBySchema("schema-" + i).getId());
+      Assert.assertEquals("schema-" + i, sub.lookupById(String.valueOf(i)).getSchema());
+    }
+    Assert.assertEquals(new SchemaEntry("20", large.toString()), sub.latest());
+  }
+
+  @Test
+  public void testLookupSchemaBytesById() throws Exception {
+    Subject sub = repo.register("bytes", null);
+    sub.register("sc1");
+    sub.register("sc\u00e9");
+    Assert.assertEquals("sc1", TestLocalFileSystemRepository.decode(sub.lookupSchemaBytesById("0")));
+    ByteBuffer bytes = sub.lookupSchemaBytesById("1");
+    Assert.assertTrue(bytes.isReadOnly());
+    Assert.assertEquals("sc\u00e9", TestLocalFileSystemRepository.decode(bytes));
+    Assert.assertNull(sub.lookupSchemaBytesById("2"));
+  }
+
+  @Test
+  public void testNonCanonicalIds() throws Exception {
+    Subject sub = repo.register("canonical", null);
+    sub.register("sc1");
+    sub.register("sc2");
+    Assert.assertEquals("sc2", sub.lookupById("1").getSchema());
+    for (String id : new String[] { "01", "+1", "001", "1 " }) {
+      Assert.assertNull(id, sub.lookupById(id));
+      Assert.assertNull(id, sub.lookupSchemaBytesById(id));
+    }
+  }
+
+  @Test
+  public void testTornTailIsDiscarded() throws Exception {
+    repo.register("torn", null).register("sc1");
+    repo.close();
+
+    // simulate a crash in the middle of an append: a header without a matching body
+    File segment = new File(REPO_PATH, "segment-0000000000.log");
+    RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+    try {
+      long tail = findTail(raf);
+      raf.seek(tail);
+      raf.writeInt(64);
+      raf.writeInt(12345);
+    } finally {
+      raf.close();
+    }
+
+    repo = createRepository();
+    Subject sub = repo.lookup("torn");
+    Assert.assertEquals("sc1", sub.latest().getSchema());
+    Assert.assertEquals("1", sub.register("sc2").getId());
+    repo.close();
+
+    repo = createRepository();
+    Assert.assertEquals("sc2", repo.lookup("torn").latest().getSchema());
+  }
+
+  private static long findTail(RandomAccessFile raf) throws Exception {
+    long position = 0;
+    while (true) {
+      raf.seek(position);
+      int length = raf.readInt();
+      if (length == 0) {
+        return position;
+      }
+      position += 8 + length;
+    }
+  }
+
+  private static void rmDir(File dir) {
+    if (!dir.exists() || !dir.isDirectory()) {
+      return;
+    }
+    for (String filename : dir.list()) {
+      File entry = new File(dir, filename);
+      if (entry.isDirectory()) {
+        rmDir(entry);
+      } else {
+        entry.delete();
+      }
+    }
+    dir.delete();
+  }
+}
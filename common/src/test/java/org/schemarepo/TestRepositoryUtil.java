@@ -86,6 +86,14 @@ public class TestRepositoryUtil {
     validate(result, vals);
   }
 
+  @Test
+  public void testFingerprint64() {
+    // the same value as Avro's SchemaNormalization.fingerprint64 for the "int" schema
+    Assert.assertEquals(0x7275d51a3f395c8fL, RepositoryUtil.fingerprint64("\"int\""));
+    Assert.assertEquals(RepositoryUtil.fingerprint64("sc1"), RepositoryUtil.fingerprint64("sc1"));
+    Assert.assertFalse(RepositoryUtil.fingerprint64("sc1") == RepositoryUtil.fingerprint64("sc2"));
+  }
+
   private void validate(Iterable<String> names, Iterable<Subject> subjects) {
     Iterator<String> nameIter = names.iterator();
     for (Subject s : subjects) {
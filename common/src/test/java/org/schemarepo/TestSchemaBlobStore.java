@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSchemaBlobStore {
+
+  private static class InMemoryBlobStore extends SchemaBlobStore {
+    private final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+
+    InMemoryBlobStore(boolean deduplicate) {
+      super(deduplicate);
+    }
+
+    @Override
+    protected byte[] readBlob(String hash) {
+      return blobs.get(hash);
+    }
+
+    @Override
+    protected void writeBlob(String hash, byte[] content) {
+      if (!blobs.containsKey(hash)) {
+        blobs.put(hash, content);
+      }
+    }
+  }
+
+  @Test
+  public void testLiteral() throws IOException {
+    InMemoryBlobStore store = new InMemoryBlobStore(false);
+    byte[] stored = store.store("sc\u00e9");
+    Assert.assertNull(SchemaBlobStore.referencedHash(stored));
+    Assert.assertEquals("sc\u00e9", store.load(stored));
+    Assert.assertTrue(store.blobs.isEmpty());
+  }
+
+  @Test
+  public void testReference() throws IOException {
+    InMemoryBlobStore store = new InMemoryBlobStore(true);
+    byte[] stored = store.store("sc");
+    Assert.assertEquals(SchemaBlobStore.hash(RepositoryUtil.getUtf8Bytes("sc")),
+        SchemaBlobStore.referencedHash(stored));
+    Assert.assertArrayEquals(stored, store.store("sc"));
+    Assert.assertEquals(1, store.blobs.size());
+    Assert.assertEquals("sc", store.load(stored));
+    Assert.assertArrayEquals(RepositoryUtil.getUtf8Bytes("sc"), store.loadBytes(stored));
+
+    // literals written before deduplication was enabled remain readable
+    Assert.assertEquals("other", store.load(RepositoryUtil.getUtf8Bytes("other")));
+  }
+
+  @Test
+  public void testLoadedSchemasAreShared() throws IOException {
+    InMemoryBlobStore store = new InMemoryBlobStore(true);
+    byte[] stored = store.store(new String("sc"));
+    String first = store.load(stored);
+    Assert.assertSame(first, store.load(stored.clone()));
+  }
+
+  @Test
+  public void testNulPrefixedSchemaIsAlwaysABlob() throws IOException {
+    InMemoryBlobStore store = new InMemoryBlobStore(false);
+    String schema = "\u0000sha256:" + SchemaBlobStore.hash(new byte[0]);
+    byte[] stored = store.store(schema);
+    Assert.assertEquals(SchemaBlobStore.hash(RepositoryUtil.getUtf8Bytes(schema)),
+        SchemaBlobStore.referencedHash(stored));
+    Assert.assertEquals(schema, store.load(stored));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingBlob() throws IOException {
+    InMemoryBlobStore store = new InMemoryBlobStore(true);
+    store.load(SchemaBlobStore.reference(SchemaBlobStore.hash(new byte[0])));
+  }
+}
@@ -37,7 +37,7 @@ import org.schemarepo.config.Config;
 
 /**
  * Exposes auxiliary (not part of {@link org.schemarepo.Repository} interface) REST endpoints, such as
- * <pre>/config</pre> and <pre>/status</pre>
+ * <pre>/config</pre>, <pre>/status</pre> and <pre>/statistics</pre>
  */
 @Singleton
 @Path("/")
@@ -70,6 +70,11 @@ public class AuxiliaryRESTRepository extends BaseRESTRepository {
     if (repo instanceof BaseRepository) {
       try {
         ((BaseRepository)repo).isValid();
+        String degradation = ((BaseRepository)repo).getDegradation();
+        if (degradation != null) {
+          // still serving, so still available to load balancers
+          text = "DEGRADED (" + degradation + ")";
+        }
       } catch (IllegalStateException e) {
         status = Status.SERVICE_UNAVAILABLE;
         text = e.getMessage();
@@ -92,4 +97,15 @@ public class AuxiliaryRESTRepository extends BaseRESTRepository {
     return Response.ok(r.renderProperties(copyOfProperties, "Configuration of schema-repo server"), r.getMediaType()).build();
   }
 
+  @GET
+  @Path("/statistics")
+  public Response getStatistics(@HeaderParam("Accept") String mediaType) {
+    final Properties statistics = new Properties();
+    if (repo instanceof BaseRepository) {
+      statistics.putAll(((BaseRepository)repo).exposeStatistics());
+    }
+    Renderer r = getRenderer(mediaType);
+    return Response.ok(r.renderProperties(statistics, "Statistics of schema-repo server"), r.getMediaType()).build();
+  }
+
 }
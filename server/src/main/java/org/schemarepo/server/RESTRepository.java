@@ -18,6 +18,11 @@
 
 package org.schemarepo.server;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -29,12 +34,17 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.schemarepo.MessageStrings;
+import org.schemarepo.ReadConsistency;
 import org.schemarepo.Repository;
 import org.schemarepo.SchemaEntry;
 import org.schemarepo.SchemaValidationException;
@@ -52,6 +62,10 @@ import com.sun.jersey.api.NotFoundException;
  * {@link org.schemarepo.server.MachineOrientedRESTRepository} and {@link org.schemarepo.server.HumanOrientedRESTRepository})
  * handle media types differently and are accessible via different paths, though the actual functionality of
  * accessing the underlying repository server is contained in this class.
+ *
+ * The reads of schemas accept the {@value org.schemarepo.ReadConsistency#PARAM} query parameter
+ * (strong, session or bounded-staleness), along with {@value org.schemarepo.ReadConsistency#MAX_AGE_PARAM}
+ * in milliseconds for bounded staleness, see {@link ReadConsistency}. They are session reads by default.
  */
 public abstract class RESTRepository extends BaseRESTRepository {
 
@@ -90,13 +104,16 @@ public abstract class RESTRepository extends BaseRESTRepository {
    */
   @GET
   @Path("{subject}/all")
-  public Response allSchemaEntries(@HeaderParam("Accept") String mediaType, @PathParam("subject") String subject) {
+  public Response allSchemaEntries(@HeaderParam("Accept") String mediaType, @PathParam("subject") String subject,
+                                   @QueryParam(ReadConsistency.PARAM) String consistency,
+                                   @QueryParam(ReadConsistency.MAX_AGE_PARAM) String maxAge) {
+    ReadConsistency readConsistency = parseConsistency(consistency, maxAge);
     Subject s = repo.lookup(subject);
     if (null == s) {
       throw new NotFoundException(MessageStrings.SUBJECT_DOES_NOT_EXIST_ERROR);
     }
     Renderer renderer = getRenderer(mediaType);
-    return Response.ok(renderer.renderSchemas(s.allEntries()), renderer.getMediaType()).build();
+    return Response.ok(renderer.renderSchemas(s.allEntries(readConsistency)), renderer.getMediaType()).build();
   }
 
   @GET
@@ -149,8 +166,11 @@ public abstract class RESTRepository extends BaseRESTRepository {
    */
   @GET
   @Path("{subject}/latest")
-  public String latest(@HeaderParam("Accept") String mediaType, @PathParam("subject") String subject) {
-    return getRenderer(mediaType).renderSchemaEntry(exists(getSubject(subject).latest()), true);
+  public String latest(@HeaderParam("Accept") String mediaType, @PathParam("subject") String subject,
+                       @QueryParam(ReadConsistency.PARAM) String consistency,
+                       @QueryParam(ReadConsistency.MAX_AGE_PARAM) String maxAge) {
+    ReadConsistency readConsistency = parseConsistency(consistency, maxAge);
+    return getRenderer(mediaType).renderSchemaEntry(exists(getSubject(subject).latest(readConsistency)), true);
   }
 
   /**
@@ -165,10 +185,24 @@ public abstract class RESTRepository extends BaseRESTRepository {
    */
   @GET
   @Path("{subject}/id/{id}")
-  public String schemaFromId(@HeaderParam("Accept") String mediaType,
-                             @PathParam("subject") String subject, @PathParam("id") String id)
+  public Response schemaFromId(@HeaderParam("Accept") String mediaType,
+                               @PathParam("subject") String subject, @PathParam("id") String id,
+                               @QueryParam(ReadConsistency.PARAM) String consistency,
+                               @QueryParam(ReadConsistency.MAX_AGE_PARAM) String maxAge)
   {
-    return getRenderer(mediaType).renderSchemaEntry(exists(getSubject(subject).lookupById(id)), false);
+    ReadConsistency readConsistency = parseConsistency(consistency, maxAge);
+    Renderer renderer = getRenderer(mediaType);
+    Subject s = getSubject(subject);
+    if (renderer instanceof PlainTextRenderer) {
+      // plain text is the schema as is, so the stored bytes can be written out without decoding them
+      ByteBuffer bytes = s.lookupSchemaBytesById(id);
+      if (bytes != null) {
+        return Response.ok(new ByteBufferOutput(bytes), renderer.getMediaType())
+            .header(HttpHeaders.CONTENT_LENGTH, bytes.remaining()).build();
+      }
+    }
+    return Response.ok(renderer.renderSchemaEntry(exists(s.lookupById(id, readConsistency)), false),
+        renderer.getMediaType()).build();
   }
 
   /**
@@ -184,8 +218,11 @@ public abstract class RESTRepository extends BaseRESTRepository {
   @POST
   @Path("{subject}/schema")
   @Consumes(MediaType.TEXT_PLAIN)
-  public String idFromSchema(@PathParam("subject") String subject, String schema) {
-    return exists(getSubject(subject).lookupBySchema(schema)).getId();
+  public String idFromSchema(@PathParam("subject") String subject,
+                             @QueryParam(ReadConsistency.PARAM) String consistency,
+                             @QueryParam(ReadConsistency.MAX_AGE_PARAM) String maxAge, String schema) {
+    ReadConsistency readConsistency = parseConsistency(consistency, maxAge);
+    return exists(getSubject(subject).lookupBySchema(schema, readConsistency)).getId();
   }
 
   /**
@@ -279,6 +316,14 @@ public abstract class RESTRepository extends BaseRESTRepository {
     return subject;
   }
 
+  private ReadConsistency parseConsistency(String consistency, String maxAge) {
+    try {
+      return ReadConsistency.parse(consistency, maxAge);
+    } catch (IllegalArgumentException e) {
+      throw new WebApplicationException(Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build());
+    }
+  }
+
   private SchemaEntry exists(SchemaEntry entry) {
     if (null == entry) {
       throw new NotFoundException(MessageStrings.SCHEMA_DOES_NOT_EXIST_ERROR);
@@ -286,4 +331,29 @@ public abstract class RESTRepository extends BaseRESTRepository {
     return entry;
   }
 
+  /**
+   * Writes the content of a buffer to a response, straight from the buffer's
+   * backing array, or through a channel for a direct or mapped buffer.
+   */
+  private static final class ByteBufferOutput implements StreamingOutput {
+    private final ByteBuffer bytes;
+
+    private ByteBufferOutput(ByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+      ByteBuffer view = bytes.duplicate();
+      if (view.hasArray()) {
+        output.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+      } else {
+        WritableByteChannel channel = Channels.newChannel(output);
+        while (view.hasRemaining()) {
+          channel.write(view);
+        }
+      }
+    }
+  }
+
 }
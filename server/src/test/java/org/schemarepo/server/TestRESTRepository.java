@@ -24,7 +24,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.schemarepo.BaseRepository;
+import org.schemarepo.CacheRepository;
+import org.schemarepo.InMemoryCache;
 import org.schemarepo.InMemoryRepository;
+import org.schemarepo.LocalFileSystemRepository;
 import org.schemarepo.ValidatorFactory;
 import org.schemarepo.json.GsonJsonUtil;
 
@@ -32,8 +35,12 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.containsString;
@@ -41,6 +48,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestRESTRepository {
 
@@ -70,7 +78,7 @@ public class TestRESTRepository {
 
   @Test(expected=NotFoundException.class)
   public void testNonExistentSubjectList() throws Exception {
-    repo.allSchemaEntries(MediaType.TEXT_PLAIN, "nothing");
+    repo.allSchemaEntries(MediaType.TEXT_PLAIN, "nothing", null, null);
   }
 
   @Test(expected=NotFoundException.class)
@@ -90,6 +98,20 @@ public class TestRESTRepository {
     assertEquals("value", properties.getProperty("key"));
   }
 
+  @Test
+  public void testGetStatistics() throws IOException {
+    BaseRepository withStatistics = new InMemoryRepository(new ValidatorFactory.Builder().build()) {
+      @Override
+      public Map<String, String> exposeStatistics() {
+        return Collections.singletonMap("lookups", "3");
+      }
+    };
+    auxRepo = new AuxiliaryRESTRepository(new CacheRepository(withStatistics, new InMemoryCache()), null);
+    Properties properties = new Properties();
+    properties.load(new StringReader(auxRepo.getStatistics(null).getEntity().toString()));
+    assertEquals("3", properties.getProperty("lookups"));
+  }
+
   @Test
   public void testGetStatus() throws Exception {
     Response response = auxRepo.getStatus();
@@ -101,6 +123,20 @@ public class TestRESTRepository {
     assertFalse(response.getEntity().toString().startsWith("OK"));
   }
 
+  @Test
+  public void testGetDegradedStatus() throws Exception {
+    BaseRepository degraded = new InMemoryRepository(new ValidatorFactory.Builder().build()) {
+      @Override
+      public String getDegradation() {
+        return "read-only";
+      }
+    };
+    auxRepo = new AuxiliaryRESTRepository(new CacheRepository(degraded, new InMemoryCache()), null);
+    Response response = auxRepo.getStatus();
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+    assertThat(response.getEntity().toString(), containsString("DEGRADED (read-only)"));
+  }
+
   @Test
   public void testInfluenceOfMediaTypeSuccess() {
     final String contentType = "Content-Type";
@@ -141,6 +177,65 @@ public class TestRESTRepository {
     assertEquals(Status.OK.getStatusCode(), response.getStatus());
   }
 
+  @Test
+  public void testSchemaFromId() throws Exception {
+    repo.createSubject("dummy", new MultivaluedMapImpl());
+    repo.addSchema("dummy", "schema");
+    Response response = repo.schemaFromId(MediaType.TEXT_PLAIN, "dummy", "0", null, null);
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+    assertEquals("schema", response.getEntity());
+  }
+
+  @Test(expected = NotFoundException.class)
+  public void testSchemaFromMissingId() {
+    repo.createSubject("dummy", new MultivaluedMapImpl());
+    repo.schemaFromId(MediaType.TEXT_PLAIN, "dummy", "0", null, null);
+  }
+
+  @Test
+  public void testLatestWithConsistency() {
+    repo.createSubject("dummy", new MultivaluedMapImpl());
+    repo.addSchema("dummy", "schema");
+    assertEquals("0\tschema", repo.latest(MediaType.TEXT_PLAIN, "dummy", "strong", null));
+    assertEquals("0\tschema", repo.latest(MediaType.TEXT_PLAIN, "dummy", "bounded-staleness", "1000"));
+  }
+
+  @Test
+  public void testInvalidConsistency() {
+    repo.createSubject("dummy", new MultivaluedMapImpl());
+    try {
+      repo.latest(MediaType.TEXT_PLAIN, "dummy", "bounded-staleness", null);
+      fail("Bounded staleness without a maximum age should be rejected");
+    } catch (WebApplicationException e) {
+      assertEquals(Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+    }
+    try {
+      repo.latest(MediaType.TEXT_PLAIN, "dummy", "eventual", null);
+      fail("An unknown consistency should be rejected");
+    } catch (WebApplicationException e) {
+      assertEquals(Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+    }
+  }
+
+  @Test
+  public void testSchemaFromIdStreamsStoredBytes() throws Exception {
+    LocalFileSystemRepository fileRepo = new LocalFileSystemRepository(
+        "target/test/TestRESTRepository-" + System.nanoTime(), new ValidatorFactory.Builder().build());
+    try {
+      RESTRepository fileRest = new MachineOrientedRESTRepository(fileRepo, new GsonJsonUtil());
+      fileRest.createSubject("dummy", new MultivaluedMapImpl());
+      fileRest.addSchema("dummy", "sch\u00e9ma");
+      Response response = fileRest.schemaFromId(MediaType.TEXT_PLAIN, "dummy", "0", null, null);
+      assertEquals(Status.OK.getStatusCode(), response.getStatus());
+      assertEquals("7", response.getMetadata().getFirst("Content-Length").toString());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ((StreamingOutput) response.getEntity()).write(out);
+      assertEquals("sch\u00e9ma", out.toString("UTF-8"));
+    } finally {
+      fileRepo.close();
+    }
+  }
+
   @Test(expected = NotFoundException.class)
   public void testSchemaFailsCreationOnMissingSubject() {
     repo.addSchema("missing", "schema");
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo.zookeeper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.schemarepo.SchemaBlobStore;
+
+/**
+ * The format of compressed znode content: a NUL byte followed by "deflate:",
+ * the length of the uncompressed content on 4 bytes, big-endian, and the
+ * content compressed with {@link Deflater}.
+ * <p/>
+ * Schemas stored as is never start with a NUL byte, see
+ * {@link org.schemarepo.SchemaBlobStore}, so compressed content cannot be
+ * mistaken for one. Blobs of schemas which do start with a NUL byte are
+ * always compressed for the same reason. References to blobs, which start
+ * with a NUL byte followed by "sha256:", are small and never compressed, so
+ * that they stay readable by instances which do not decompress content.
+ */
+final class CompressedContent {
+
+  private static final byte[] HEADER = "\u0000deflate:".getBytes(Charset.forName("UTF-8"));
+  private static final int PREFIX_LENGTH = HEADER.length + 4;
+
+  private CompressedContent() {
+  }
+
+  /**
+   * @param threshold the length from which content is compressed, or a
+   * negative value to only compress content which must be
+   * @return the content to store, compressed unless that is not required and
+   * would not make it smaller, and never if it is a reference to a blob
+   */
+  static byte[] compress(byte[] content, int threshold) {
+    if (SchemaBlobStore.referencedHash(content) != null) {
+      return content;
+    }
+    boolean required = content.length > 0 && content[0] == 0;
+    if (!required && (threshold < 0 || content.length < threshold)) {
+      return content;
+    }
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + PREFIX_LENGTH);
+    try {
+      out.write(HEADER, 0, HEADER.length);
+      out.write(content.length >>> 24);
+      out.write(content.length >>> 16);
+      out.write(content.length >>> 8);
+      out.write(content.length);
+      deflater.setInput(content);
+      deflater.finish();
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+    } finally {
+      deflater.end();
+    }
+    return required || out.size() < content.length ? out.toByteArray() : content;
+  }
+
+  static boolean isCompressed(byte[] stored) {
+    if (stored == null || stored.length < PREFIX_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < HEADER.length; i++) {
+      if (stored[i] != HEADER[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the provided content, decompressed if it is compressed
+   * @throws IOException if it is compressed but corrupt
+   */
+  static byte[] decompress(byte[] stored) throws IOException {
+    if (!isCompressed(stored)) {
+      return stored;
+    }
+    int length = ((stored[HEADER.length] & 0xff) << 24) | ((stored[HEADER.length + 1] & 0xff) << 16)
+        | ((stored[HEADER.length + 2] & 0xff) << 8) | (stored[HEADER.length + 3] & 0xff);
+    if (length < 0) {
+      throw new IOException("Invalid length of compressed content: " + length);
+    }
+    byte[] content = new byte[length];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(stored, PREFIX_LENGTH, stored.length - PREFIX_LENGTH);
+      int read = 0;
+      while (read < length) {
+        int count = inflater.inflate(content, read, length - read);
+        if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += count;
+      }
+      if (read != length || !inflater.finished()) {
+        throw new IOException("Truncated compressed content, " + read + " of " + length + " bytes");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt compressed content", e);
+    } finally {
+      inflater.end();
+    }
+    return content;
+  }
+}
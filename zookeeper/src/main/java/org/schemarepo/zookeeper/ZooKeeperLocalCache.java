@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.schemarepo.zookeeper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A copy on the local disk of the schemas and the metadata of the subjects
+ * of a {@link ZooKeeperRepository}, from which it starts warm.
+ * <p/>
+ * Each subject has a directory holding one file per schema, named after its
+ * id, along with its properties and its latest id as last seen in ZK. Files
+ * are written aside, forced to disk and renamed into place, so that they are
+ * never seen incomplete, even after a crash, which may only undo the rename.
+ * This is only a cache: failing to write it is logged, and whatever cannot be
+ * read back is ignored, to be read from ZK again.
+ */
+class ZooKeeperLocalCache {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String SUBJECT_PROPERTIES = "subject.properties";
+  private static final String LATEST_ID = "latest_id";
+  private static final String SCHEMA_POSTFIX = ".schema";
+  private static final String TMP_POSTFIX = ".tmp";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final File rootDir;
+
+  /**
+   * A subject as it was last saved.
+   */
+  static final class SavedSubject {
+    final String name;
+    final Map<String, String> schemas;
+    final int latestId;
+    // null if they were never saved
+    final byte[] properties;
+
+    private SavedSubject(String name, Map<String, String> schemas, int latestId, byte[] properties) {
+      this.name = name;
+      this.schemas = schemas;
+      this.latestId = latestId;
+      this.properties = properties;
+    }
+  }
+
+  ZooKeeperLocalCache(String path) {
+    rootDir = new File(path);
+    if (!rootDir.isDirectory() && !rootDir.mkdirs()) {
+      throw new RuntimeException("Unable to create the local cache directory: " + rootDir.getAbsolutePath());
+    }
+  }
+
+  String getPath() {
+    return rootDir.getAbsolutePath();
+  }
+
+  /**
+   * @return the subjects saved in the cache, with the schemas which could be
+   * read up to their latest id
+   */
+  List<SavedSubject> load() {
+    List<SavedSubject> subjects = new ArrayList<SavedSubject>();
+    File[] dirs = rootDir.listFiles();
+    if (dirs == null) {
+      return subjects;
+    }
+    for (File dir : dirs) {
+      if (!dir.isDirectory()) {
+        continue;
+      }
+      try {
+        subjects.add(load(dir));
+      } catch (IOException e) {
+        logger.warn("Ignoring the unreadable local copy of subject {}", dir.getName(), e);
+      } catch (RuntimeException e) {
+        logger.warn("Ignoring the unreadable local copy of subject {}", dir.getName(), e);
+      }
+    }
+    return subjects;
+  }
+
+  private SavedSubject load(File dir) throws IOException {
+    File latestIdFile = new File(dir, LATEST_ID);
+    int latestId = latestIdFile.exists() ? Integer.parseInt(new String(readBytes(latestIdFile), UTF8).trim()) : -1;
+    File propertyFile = new File(dir, SUBJECT_PROPERTIES);
+    byte[] properties = propertyFile.exists() ? readBytes(propertyFile) : null;
+    Map<String, String> schemas = new HashMap<String, String>();
+    for (int id = 0; id <= latestId; id++) {
+      File schemaFile = new File(dir, id + SCHEMA_POSTFIX);
+      if (schemaFile.exists()) {
+        schemas.put(String.valueOf(id), new String(readBytes(schemaFile), UTF8));
+      }
+    }
+    return new SavedSubject(dir.getName(), schemas, latestId, properties);
+  }
+
+  /**
+   * Saves a schema, unless it is already. Schemas never change once
+   * registered, so an existing file is never rewritten.
+   */
+  void saveSchema(String subjectName, String id, String schema) {
+    File file = new File(new File(rootDir, subjectName), id + SCHEMA_POSTFIX);
+    if (!file.exists()) {
+      save(file, schema.getBytes(UTF8));
+    }
+  }
+
+  void saveLatestId(String subjectName, int latestId) {
+    save(new File(new File(rootDir, subjectName), LATEST_ID), String.valueOf(latestId).getBytes(UTF8));
+  }
+
+  void saveProperties(String subjectName, byte[] properties) {
+    save(new File(new File(rootDir, subjectName), SUBJECT_PROPERTIES), properties);
+  }
+
+  /**
+   * Deletes the copy of a subject which turned out not to match ZK.
+   */
+  void forget(String subjectName) {
+    File dir = new File(rootDir, subjectName);
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    if (dir.exists() && !dir.delete()) {
+      logger.warn("Unable to delete the local copy of subject {}", subjectName);
+    }
+  }
+
+  private void save(File file, byte[] content) {
+    File dir = file.getParentFile();
+    File tmp = null;
+    try {
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Unable to create directory: " + dir.getAbsolutePath());
+      }
+      // unique, since several threads may save the same file
+      tmp = File.createTempFile(file.getName(), TMP_POSTFIX, dir);
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        out.write(content);
+        // or the rename may reach the disk before the content does
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+        throw new IOException("Unable to rename " + tmp.getAbsolutePath());
+      }
+    } catch (IOException e) {
+      if (tmp != null) {
+        tmp.delete();
+      }
+      logger.warn("Unable to save {} to the local cache", file.getAbsolutePath(), e);
+    }
+  }
+
+  private static byte[] readBytes(File file) throws IOException {
+    byte[] content = new byte[(int) file.length()];
+    InputStream in = new FileInputStream(file);
+    try {
+      int read = 0;
+      while (read < content.length) {
+        int count = in.read(content, read, content.length - read);
+        if (count < 0) {
+          throw new IOException("Unexpected end of " + file.getAbsolutePath());
+        }
+        read += count;
+      }
+    } finally {
+      in.close();
+    }
+    return content;
+  }
+}
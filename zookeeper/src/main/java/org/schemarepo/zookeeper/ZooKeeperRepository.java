@@ -19,17 +19,29 @@
 package org.schemarepo.zookeeper;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -37,18 +49,39 @@ import javax.inject.Named;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.api.transaction.OperationType;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.framework.recipes.cache.NodeCacheListener;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.Participant;
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.schemarepo.AbstractBackendRepository;
+import org.schemarepo.ReadConsistency;
 import org.schemarepo.RepositoryUtil;
+import org.schemarepo.SchemaBlobStore;
 import org.schemarepo.SchemaEntry;
 import org.schemarepo.SchemaValidationException;
 import org.schemarepo.Subject;
 import org.schemarepo.SubjectConfig;
 import org.schemarepo.ValidatorFactory;
+import org.schemarepo.client.RESTRepositoryClient;
 import org.schemarepo.config.Config;
+import org.schemarepo.json.GsonJsonUtil;
 
 /**
  * This {@link org.schemarepo.Repository} implementation stores its state using Zookeeper.
@@ -59,18 +92,122 @@ import org.schemarepo.config.Config;
  * <p/>
  * This Repository is meant to be highly available, meaning that multiple instances
  * can share the same Zookeeper ensemble and synchronize their state through it.
+ * Each subject mirrors its ids and properties locally, kept up to date by ZK
+ * watches, and keeps the schemas it read for good since they never change, so
+ * that reads do not go to ZK in the steady state. Changes made by other
+ * instances are thus seen as soon as their watch fires rather than immediately,
+ * but registrations always build upon the current state in ZK.
+ * <p/>
+ * If schema-repo.zookeeper.deduplicate is enabled, schemas are stored once in
+ * the '.blobs' znode and subjects only hold references to them, see
+ * {@link SchemaBlobStore}. Schemas of at least
+ * schema-repo.zookeeper.compression-threshold bytes are stored compressed, and
+ * those which still exceed schema-repo.zookeeper.chunk-size bytes are split in
+ * chunks under the '.chunks' znode, since a znode cannot exceed ZK's
+ * jute.maxbuffer.
+ * <p/>
+ * If schema-repo.zookeeper.local-cache-path is set, the schemas and the
+ * metadata of the subjects are also saved in that directory. They are restored
+ * from it at startup, and served while the ZK session is being established,
+ * after which the ids and properties of the subjects are replaced by those in
+ * ZK. Until then, whatever requires ZK fails right away.
+ * <p/>
+ * Likewise, while the connection to ZK is suspended or lost, the repository is
+ * degraded: it keeps serving what it has cached and fails whatever requires ZK,
+ * registrations in particular, right away. The server's /status reports it.
+ * <p/>
+ * If schema-repo.zookeeper.leader-election is enabled, the instances elect a
+ * leader, which makes all of the registrations, while the others forward
+ * registrations to it through its REST API, at the URL it advertises as
+ * schema-repo.zookeeper.advertised-url, and serve reads as usual. The leader
+ * still takes the locks, which it then never waits for but for when the
+ * leadership changes, since a former leader may not know yet that it lost it.
  */
 public class ZooKeeperRepository extends AbstractBackendRepository {
 
   // Constants
   private static final String LOCKFILE = ".repo.lock";
+  private static final String LEADER = ".leader";
+  private static final String LOCKS = ".locks";
+  private static final String BLOBS = ".blobs";
+  private static final String CHUNKS = ".chunks";
+  // followed by the hash of the chunked content and the number of chunks
+  private static final String CHUNKS_REFERENCE = "\u0000chunks:";
+  private static final byte[] CHUNKS_REFERENCE_PREFIX = RepositoryUtil.getUtf8Bytes(CHUNKS_REFERENCE);
   private static final String SUBJECT_PROPERTIES = "subject.properties";
+  private static final String LATEST_ID = "latest_id";
+  // replaced by LATEST_ID, only read to migrate subjects created before it was
   private static final String SCHEMA_IDS = "schema_ids";
   private static final String SCHEMA_POSTFIX = ".schema";
+  private static final String FINGERPRINTS = "fingerprints";
+  // the content of the fingerprints znode while the index is being built
+  private static final String INDEX_BUILDING = "building";
+  // returned by an attempt to register a schema which lost to another registration
+  private static final SchemaEntry CONFLICT = new SchemaEntry(null, null);
+  // upper bound of the random pause after a conflicting registration
+  private static final int MAX_CONFLICT_BACKOFF_MS = 100;
+  private static final Random backoffJitter = new Random();
 
   // Curator implementation details
   CuratorFramework zkClient;
-  InterProcessSemaphoreMutex zkLock;
+  // only guards the creation of subjects, each subject has a lock of its own
+  ZooKeeperLock creationLock;
+  private final long lockTimeout;
+  // how long to wait for pipelined reads to complete
+  private final long readTimeout;
+  private final boolean optimisticRegistration;
+  private final boolean leaderElection;
+  private final String advertisedUrl;
+  private final int compressionThreshold;
+  private final int chunkSize;
+  private final AtomicInteger locksHeld = new AtomicInteger();
+  private final AtomicLong lockAcquisitions = new AtomicLong();
+  private final AtomicLong lockTimeouts = new AtomicLong();
+  private final AtomicLong lockWaitNanos = new AtomicLong();
+  private final AtomicLong maxLockWaitNanos = new AtomicLong();
+  private final AtomicLong registrationConflicts = new AtomicLong();
+
+  private final ZooKeeperBlobStore blobs;
+  // the caches of the subjects, closed along with the repository
+  private final Set<NodeCache> caches =
+      Collections.newSetFromMap(new ConcurrentHashMap<NodeCache, Boolean>());
+  // watches the children of the zkPathPrefix, from which subjects are listed
+  private final PathChildrenCache subjectListing;
+  private final String zkPathPrefix;
+  // null unless enabled
+  private final ZooKeeperLocalCache localCache;
+  // restored from the local cache, until reconciled with ZK
+  private final List<ZooKeeperSubject> restoredSubjects = new ArrayList<ZooKeeperSubject>();
+  // whether ZK may be accessed, which happens before the restored subjects are reconciled
+  private volatile boolean sessionStarted;
+  // whether the restored subjects were reconciled as well, once the startup is finished
+  private volatile boolean sessionEstablished;
+  // whether the connection to ZK is suspended or lost, only cached reads are served meanwhile
+  private volatile boolean disconnected;
+  private final AtomicLong disconnections = new AtomicLong();
+  // null unless leader election is enabled and the session was established
+  private volatile LeaderLatch leaderLatch;
+  // clients of the leaders writes were forwarded to, by URL
+  private final ConcurrentHashMap<String, RESTRepositoryClient> leaderClients =
+      new ConcurrentHashMap<String, RESTRepositoryClient>();
+  private final AtomicLong forwardedRegistrations = new AtomicLong();
+
+  public ZooKeeperRepository(String zkEnsemble,
+                             String zkPathPrefix,
+                             Integer zkSessionTimeout,
+                             Integer zkConnectionTimeout,
+                             Integer curatorSleepTimeBetweenRetries,
+                             Integer curatorNumberOfRetries,
+                             ValidatorFactory validators) {
+    this(zkEnsemble, zkPathPrefix, zkSessionTimeout, zkConnectionTimeout, curatorSleepTimeBetweenRetries,
+        curatorNumberOfRetries, Boolean.valueOf(Config.getDefault(Config.ZK_DEDUPLICATE)),
+        Config.getIntDefault(Config.ZK_LOCK_TIMEOUT),
+        Boolean.valueOf(Config.getDefault(Config.ZK_OPTIMISTIC_REGISTRATION)),
+        Config.getDefault(Config.ZK_LOCAL_CACHE_PATH), Config.getIntDefault(Config.ZK_COMPRESSION_THRESHOLD),
+        Config.getIntDefault(Config.ZK_CHUNK_SIZE),
+        Boolean.valueOf(Config.getDefault(Config.ZK_LEADER_ELECTION)), Config.getDefault(Config.ZK_ADVERTISED_URL),
+        validators);
+  }
 
   @Inject
   public ZooKeeperRepository(@Named(Config.ZK_ENSEMBLE) String zkEnsemble,
@@ -79,14 +216,36 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
                              @Named(Config.ZK_CONNECTION_TIMEOUT) Integer zkConnectionTimeout,
                              @Named(Config.ZK_CURATOR_SLEEP_TIME_BETWEEN_RETRIES) Integer curatorSleepTimeBetweenRetries,
                              @Named(Config.ZK_CURATOR_NUMBER_OF_RETRIES) Integer curatorNumberOfRetries,
+                             @Named(Config.ZK_DEDUPLICATE) Boolean deduplicate,
+                             @Named(Config.ZK_LOCK_TIMEOUT) Integer lockTimeout,
+                             @Named(Config.ZK_OPTIMISTIC_REGISTRATION) Boolean optimisticRegistration,
+                             @Named(Config.ZK_LOCAL_CACHE_PATH) String localCachePath,
+                             @Named(Config.ZK_COMPRESSION_THRESHOLD) Integer compressionThreshold,
+                             @Named(Config.ZK_CHUNK_SIZE) Integer chunkSize,
+                             @Named(Config.ZK_LEADER_ELECTION) Boolean leaderElection,
+                             @Named(Config.ZK_ADVERTISED_URL) String advertisedUrl,
                              ValidatorFactory validators)
   {
     super(validators);
+    blobs = new ZooKeeperBlobStore(deduplicate);
+    this.lockTimeout = lockTimeout;
+    this.readTimeout = zkSessionTimeout;
+    this.optimisticRegistration = optimisticRegistration;
+    this.compressionThreshold = compressionThreshold;
+    this.chunkSize = chunkSize;
+    this.leaderElection = leaderElection;
+    this.advertisedUrl = advertisedUrl;
+    this.zkPathPrefix = zkPathPrefix;
 
     if (zkEnsemble == null || zkEnsemble.isEmpty()) {
       logger.error("The '{}' config is missing. Exiting.", Config.ZK_ENSEMBLE);
       System.exit(1);
     }
+    if (leaderElection && (advertisedUrl == null || advertisedUrl.isEmpty())) {
+      logger.error("The '{}' config is required by '{}'. Exiting.", Config.ZK_ADVERTISED_URL,
+          Config.ZK_LEADER_ELECTION);
+      System.exit(1);
+    }
 
     logger.info("Starting ZookeeperRepository with the following parameters:\n" +
             Config.ZK_ENSEMBLE + ": " + zkEnsemble + "\n" +
@@ -94,7 +253,15 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
             Config.ZK_SESSION_TIMEOUT + ": " + zkSessionTimeout + "\n" +
             Config.ZK_CONNECTION_TIMEOUT + ": " + zkConnectionTimeout + "\n" +
             Config.ZK_CURATOR_SLEEP_TIME_BETWEEN_RETRIES + ": " + curatorSleepTimeBetweenRetries + "\n" +
-            Config.ZK_CURATOR_NUMBER_OF_RETRIES + ": " + curatorNumberOfRetries);
+            Config.ZK_CURATOR_NUMBER_OF_RETRIES + ": " + curatorNumberOfRetries + "\n" +
+            Config.ZK_DEDUPLICATE + ": " + deduplicate + "\n" +
+            Config.ZK_LOCK_TIMEOUT + ": " + lockTimeout + "\n" +
+            Config.ZK_OPTIMISTIC_REGISTRATION + ": " + optimisticRegistration + "\n" +
+            Config.ZK_LOCAL_CACHE_PATH + ": " + localCachePath + "\n" +
+            Config.ZK_COMPRESSION_THRESHOLD + ": " + compressionThreshold + "\n" +
+            Config.ZK_CHUNK_SIZE + ": " + chunkSize + "\n" +
+            Config.ZK_LEADER_ELECTION + ": " + leaderElection + "\n" +
+            Config.ZK_ADVERTISED_URL + ": " + advertisedUrl);
 
     RetryPolicy retryPolicy = new RetryNTimes(curatorSleepTimeBetweenRetries, curatorNumberOfRetries);
     CuratorFrameworkFactory.Builder cffBuilder = CuratorFrameworkFactory.builder()
@@ -105,11 +272,61 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
             .defaultData(new byte[0]);
 
     // This temporary CuratorFramework is not namespaced and is only used to ensure the zkPathPrefix is properly initialized
-    CuratorFramework tempCuratorFramework = cffBuilder.build();
+    final CuratorFramework tempCuratorFramework = cffBuilder.build();
     tempCuratorFramework.start();
 
+    // The CuratorFramework we'll use for the rest of the ZK Repository's runtime,
+    // only used once we're certain the zkPathPrefix is present.
+    String zkPathPrefixWithoutLeadingSlash = zkPathPrefix.substring(1);
+    zkClient = cffBuilder.namespace(zkPathPrefixWithoutLeadingSlash).build();
+    zkClient.getConnectionStateListenable().addListener(new ConnectionStateListener() {
+      @Override
+      public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        connectionStateChanged(newState);
+      }
+    });
+    zkClient.start();
+    creationLock = new ZooKeeperLock(LOCKFILE, "subject creation");
+    // outside of the namespace, in which the root cannot be watched
+    subjectListing = new PathChildrenCache(zkClient.usingNamespace(null), zkPathPrefix, false);
+    subjectListing.getListenable().addListener(new PathChildrenCacheListener() {
+      @Override
+      public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+        if (event.getType() == PathChildrenCacheEvent.Type.CHILD_ADDED) {
+          loadSubject(ZKPaths.getNodeFromPath(event.getData().getPath()));
+        }
+      }
+    });
+
+    if (localCachePath == null || localCachePath.isEmpty()) {
+      localCache = null;
+      establishSession(tempCuratorFramework, zkPathPrefix);
+    } else {
+      // Serve what was cached locally while the session is being established
+      localCache = new ZooKeeperLocalCache(localCachePath);
+      restoreSubjects();
+      final String prefix = zkPathPrefix;
+      Thread startup = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          establishSession(tempCuratorFramework, prefix);
+        }
+      }, "ZooKeeperRepository startup");
+      startup.setDaemon(true);
+      startup.start();
+    }
+  }
+
+  /**
+   * Creates the zkPathPrefix if need be and waits for the ZK session, then
+   * starts listing subjects and reconciles those restored from the local
+   * cache with ZK. Gives up silently if the repository is closed meanwhile.
+   */
+  private void establishSession(CuratorFramework tempCuratorFramework, String zkPathPrefix) {
     try {
-      tempCuratorFramework.blockUntilConnected();
+      if (!awaitConnection(tempCuratorFramework)) {
+        return;
+      }
       tempCuratorFramework.create().creatingParentsIfNeeded().forPath(zkPathPrefix);
       logger.info("The ZK Path Prefix ({}) was created in ZK.", zkPathPrefix);
     } catch (KeeperException.NodeExistsException e) {
@@ -120,65 +337,257 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
     } catch (Exception e) {
       logger.error("There was an unrecoverable exception during the ZooKeeperRepository startup. Exiting.", e);
       System.exit(1);
+    } finally {
+      tempCuratorFramework.close();
     }
 
-    // Once we're certain the zkPathPrefix is present, we initialize the CuratorFramework
-    // we'll use for the rest of the ZK Repository's runtime.
-    String zkPathPrefixWithoutLeadingSlash = zkPathPrefix.substring(1);
-    zkClient = cffBuilder.namespace(zkPathPrefixWithoutLeadingSlash).build();
-    zkClient.start();
-
     try {
-      zkClient.blockUntilConnected();
-      zkLock = new InterProcessSemaphoreMutex(zkClient, LOCKFILE);
+      if (!awaitConnection(zkClient)) {
+        return;
+      }
+      sessionStarted = true;
+      subjectListing.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+      for (ZooKeeperSubject subject : restoredSubjects) {
+        subject.reconcile();
+      }
+      restoredSubjects.clear();
+      sessionEstablished = true;
+      if (leaderElection) {
+        LeaderLatch latch = new LeaderLatch(zkClient, "/" + LEADER, advertisedUrl);
+        latch.start();
+        leaderLatch = latch;
+      }
       logger.info("ZooKeeperRepository startup finished!");
     } catch (Exception e) {
+      if (zkClient.getState() == CuratorFrameworkState.STOPPED) {
+        return;
+      }
       logger.error("There was an unrecoverable exception during the ZooKeeperRepository startup. Exiting.", e);
       System.exit(1);
     }
   }
 
-  private void acquireLock() {
-    try {
-      zkLock.acquire();
-    } catch (Exception e) {
-      logger.error("An exception occurred while trying to get the ZK lock!", e);
-      throw new RuntimeException(e);
+  /**
+   * Waits for the provided client to connect, for as long as the repository
+   * is not closed.
+   *
+   * @return false if the repository was closed first
+   */
+  private boolean awaitConnection(CuratorFramework client) throws InterruptedException {
+    while (!client.blockUntilConnected(1, TimeUnit.SECONDS)) {
+      if (zkClient.getState() == CuratorFrameworkState.STOPPED) {
+        return false;
+      }
+    }
+    return zkClient.getState() != CuratorFrameworkState.STOPPED;
+  }
+
+  /**
+   * Caches the subjects saved in the local cache, without accessing ZK.
+   */
+  private void restoreSubjects() {
+    List<ZooKeeperLocalCache.SavedSubject> saved = localCache.load();
+    for (ZooKeeperLocalCache.SavedSubject savedSubject : saved) {
+      ZooKeeperSubject subject = new ZooKeeperSubject(savedSubject.name);
+      subject.restore(savedSubject);
+      restoredSubjects.add(subject);
+      cacheSubject(subject);
+    }
+    logger.info("Restored {} subjects from the local cache at {}", saved.size(), localCache.getPath());
+  }
+
+  boolean isSessionEstablished() {
+    return sessionEstablished;
+  }
+
+  /**
+   * Degrades the repository while the connection to ZK is suspended or lost:
+   * reads are served from the caches, and whatever requires ZK fails right
+   * away rather than waiting for the connection to come back.
+   */
+  void connectionStateChanged(ConnectionState newState) {
+    if (newState == ConnectionState.SUSPENDED || newState == ConnectionState.LOST) {
+      if (!disconnected) {
+        disconnections.incrementAndGet();
+        logger.warn("The connection to ZK is {}, only cached reads are served until it is back", newState);
+      }
+      disconnected = true;
+    } else if (newState == ConnectionState.CONNECTED || newState == ConnectionState.RECONNECTED) {
+      if (disconnected) {
+        logger.info("The connection to ZK is back");
+      }
+      disconnected = false;
     }
   }
 
-  private void releaseLock() {
+  /**
+   * @throws IllegalStateException if the ZK session is not established yet
+   * or the connection to ZK is lost, rather than waiting for it, while
+   * serving what is cached
+   */
+  private void requireConnection() {
+    if (!sessionStarted) {
+      throw new IllegalStateException("The ZK session is not established yet");
+    }
+    if (disconnected) {
+      throw new IllegalStateException("The connection to ZK is lost, only cached reads are served");
+    }
+  }
+
+  @Override
+  public String getDegradation() {
+    if (!sessionEstablished) {
+      return "serving the local cache until the ZK session is established";
+    }
+    if (disconnected) {
+      return "the connection to ZK is lost, only cached reads are served";
+    }
+    return null;
+  }
+
+  /**
+   * A lock held by at most one thread of all of the instances sharing the
+   * ensemble. The threads of this instance queue on a local lock first, so
+   * that only one of them at a time waits on ZK.
+   */
+  private class ZooKeeperLock {
+    private final ReentrantLock localLock = new ReentrantLock(true);
+    private final InterProcessSemaphoreMutex zkLock;
+    private final String description;
+
+    private ZooKeeperLock(String path, String description) {
+      this.zkLock = new InterProcessSemaphoreMutex(zkClient, path);
+      this.description = description;
+    }
+
+    /**
+     * @throws IllegalStateException if the lock could not be acquired within
+     * the configured lock timeout
+     */
+    private void acquire() {
+      requireConnection();
+      long start = System.nanoTime();
+      boolean acquired = false;
+      try {
+        if (localLock.tryLock(lockTimeout, TimeUnit.MILLISECONDS)) {
+          try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(lockTimeout) - (System.nanoTime() - start);
+            acquired = zkLock.acquire(remaining, TimeUnit.NANOSECONDS);
+          } finally {
+            if (!acquired) {
+              localLock.unlock();
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for the lock of " + description, e);
+      } catch (Exception e) {
+        logger.error("An exception occurred while trying to get the ZK lock!", e);
+        throw new RuntimeException(e);
+      }
+      long waited = System.nanoTime() - start;
+      lockWaitNanos.addAndGet(waited);
+      long max;
+      while ((max = maxLockWaitNanos.get()) < waited && !maxLockWaitNanos.compareAndSet(max, waited)) {
+        // retry until the max is at least what this thread waited
+      }
+      if (!acquired) {
+        lockTimeouts.incrementAndGet();
+        throw new IllegalStateException("Timed out after " + lockTimeout + " ms waiting for the lock of "
+            + description);
+      }
+      lockAcquisitions.incrementAndGet();
+      locksHeld.incrementAndGet();
+    }
+
+    private void release() {
+      try {
+        zkLock.release();
+      } catch (Exception e) {
+        logger.error("An exception occurred while trying to release the ZK lock!", e);
+        throw new RuntimeException(e);
+      } finally {
+        locksHeld.decrementAndGet();
+        localLock.unlock();
+      }
+    }
+  }
+
+  private void startCache(NodeCache cache) throws Exception {
+    caches.add(cache);
+    cache.start(true);
+  }
+
+  private void closeCache(NodeCache cache) {
+    caches.remove(cache);
     try {
-      zkLock.release();
-    } catch (Exception e) {
-      logger.error("An exception occurred while trying to release the ZK lock!", e);
-      throw new RuntimeException(e);
+      cache.close();
+    } catch (IOException e) {
+      logger.warn("An exception occurred while closing a ZK cache", e);
+    }
+  }
+
+  private static boolean isSubjectName(String child) {
+    return !child.equals(LOCKFILE) && !child.equals(LOCKS) && !child.equals(BLOBS) && !child.equals(CHUNKS)
+        && !child.equals(LEADER);
+  }
+
+  /**
+   * Loads a subject discovered by the children watch, ahead of it being
+   * listed or looked up.
+   */
+  private void loadSubject(String subjectName) {
+    if (!closed && isSubjectName(subjectName) && subjectCache.lookup(subjectName) == null) {
+      try {
+        lookup(subjectName);
+      } catch (RuntimeException e) {
+        // left to be loaded when it is listed or looked up
+        logger.warn("An exception occurred while loading the subject " + subjectName, e);
+      }
     }
   }
 
   protected Subject getSubjectInstance(final String subjectName) {
-    return new ZooKeeperSubject(subjectName);
+    ZooKeeperSubject subject = new ZooKeeperSubject(subjectName);
+    subject.attach();
+    return subject;
   }
 
   @Override
   protected void registerSubjectInBackend(final String subjectName, final SubjectConfig config) {
+    requireConnection();
+    RESTRepositoryClient leader = leader();
+    if (leader != null) {
+      leader.register(subjectName, config);
+      forwardedRegistrations.incrementAndGet();
+      // for the subject to be seen when it is loaded right after
+      sync(subjectName);
+      return;
+    }
     // If the Subject is not in the local cache, we acquire the lock to create it
-    acquireLock();
+    creationLock.acquire();
     try {
-      zkClient.create().forPath(subjectName);
-      // N.B.: There is a possibility that the Subject was already created by
-      // another repository instance. If the create operation above didn't throw,
-      // then we need to initialize the Subject.
-
-      // Create schema IDs file
-      zkClient.create().forPath(subjectName + "/" + SCHEMA_IDS);
-      // Create properties file
       Properties props = new Properties();
       props.putAll(RepositoryUtil.safeConfig(config).asMap());
       StringWriter sw = new StringWriter();
       props.store(sw, "Schema Repository Subject Properties");
       byte[] content = sw.toString().getBytes();
-      zkClient.create().forPath(subjectName + "/" + SUBJECT_PROPERTIES, content);
+      // Create the Subject along with its latest schema ID file, empty as long
+      // as there is no schema, its properties file and its (complete) index of
+      // schemas by fingerprint, in one ZK transaction so that other instances
+      // never see it partially created.
+      // N.B.: There is a possibility that the Subject was already created by
+      // another repository instance, in which case the transaction fails.
+      zkClient.inTransaction().
+              create().forPath(subjectName).
+              and().
+              create().forPath(subjectName + "/" + LATEST_ID).
+              and().
+              create().forPath(subjectName + "/" + SUBJECT_PROPERTIES, content).
+              and().
+              create().forPath(subjectName + "/" + FINGERPRINTS).
+              and().commit();
 
     } catch (KeeperException.NodeExistsException e) {
       // The Subject was already created by another repository instance, we will
@@ -187,46 +596,109 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
       logger.error("An exception occurred while accessing ZK!", e);
       throw new RuntimeException(e);
     } finally {
-      releaseLock();
+      creationLock.release();
     }
   }
 
-  @Override
-  protected boolean checkSubjectExistsInBackend(final String subjectName) {
-    // If not in cache, another instance may have created it
+  /**
+   * @return a client of the leader to forward registrations to, or null if
+   * they are to be made by this instance: if leader election is disabled, or
+   * this instance is or is about to become the leader
+   * @throws IllegalStateException if no leader is elected
+   */
+  private RESTRepositoryClient leader() {
+    if (!leaderElection) {
+      return null;
+    }
+    LeaderLatch latch = leaderLatch;
+    if (latch == null) {
+      throw new IllegalStateException("No leader is elected yet");
+    }
+    if (latch.hasLeadership()) {
+      return null;
+    }
+    String leaderUrl;
     try {
-      // TODO: Allow this behavior to be disabled once we have async updating
-      // of the cache via ZK Observers... This would protect ZK from getting
-      // hammered too much at the expense of slightly stale data.
-      return zkClient.checkExists().forPath(subjectName) != null;
+      Participant participant = latch.getLeader();
+      leaderUrl = participant.isLeader() ? participant.getId() : null;
     } catch (Exception e) {
       logger.error("An exception occurred while accessing ZK!", e);
       throw new RuntimeException(e);
     }
+    if (leaderUrl == null || leaderUrl.isEmpty()) {
+      throw new IllegalStateException("No leader is elected to forward the registration to");
+    }
+    if (leaderUrl.equals(advertisedUrl)) {
+      return null;
+    }
+    RESTRepositoryClient client = leaderClients.get(leaderUrl);
+    if (client == null) {
+      // errors are propagated for the registration to fail
+      leaderClients.putIfAbsent(leaderUrl, new RESTRepositoryClient(leaderUrl, new GsonJsonUtil(), false));
+      client = leaderClients.get(leaderUrl);
+    }
+    return client;
   }
 
-  @Override
-  public synchronized Iterable<Subject> subjects() {
-    isValid();
-
+  /**
+   * Waits for the ZK server this instance is connected to to catch up with the
+   * leader of the ensemble, so that reads which follow see what was written
+   * through other servers.
+   */
+  private void sync(String path) {
+    final CountDownLatch done = new CountDownLatch(1);
     try {
-      // TODO: Allow this behavior to be disabled once we have async updating
-      // of the cache via ZK Observers... This would protect ZK from getting
-      // hammered too much at the expense of slightly stale data.
-      Iterable<String> subjectsInZk = zkClient.getChildren().forPath("");
-      for (String subjectInZk : subjectsInZk) {
-        if (!subjectInZk.equals(LOCKFILE)) {
-          if (subjectCache.lookup(subjectInZk) == null) {
-            getAndCacheSubject(subjectInZk);
-          }
+      zkClient.sync().inBackground(new BackgroundCallback() {
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) {
+          done.countDown();
         }
+      }).forPath(path);
+      if (!done.await(readTimeout, TimeUnit.MILLISECONDS)) {
+        logger.warn("Timed out syncing {} with ZK", path);
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while syncing with ZK", e);
+    } catch (Exception e) {
+      logger.error("An exception occurred while accessing ZK!", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  protected boolean checkSubjectExistsInBackend(final String subjectName) {
+    // If not in cache, another instance may have created it, which the
+    // children watch may not have caught up with yet
+    if (subjectListing.getCurrentData(ZKPaths.makePath(zkPathPrefix, subjectName)) != null) {
+      return true;
+    }
+    requireConnection();
+    try {
+      return zkClient.checkExists().forPath(subjectName) != null;
     } catch (Exception e) {
       logger.error("An exception occurred while accessing ZK!", e);
       throw new RuntimeException(e);
     }
+  }
 
-    return super.subjects();
+  /**
+   * Lists the subjects known to the children watch of the root, without
+   * accessing ZK. Subjects created by other instances are listed once the
+   * watch fires, usually well before this is called.
+   */
+  @Override
+  public Iterable<Subject> subjects() {
+    isValid();
+    for (ChildData child : subjectListing.getCurrentData()) {
+      String subjectName = ZKPaths.getNodeFromPath(child.getPath());
+      // only the subjects loaded already are listed while disconnected
+      if (isSubjectName(subjectName) && subjectCache.lookup(subjectName) == null && !disconnected) {
+        // not loaded by the watch's listener yet
+        lookup(subjectName);
+      }
+    }
+    return subjectCache.values();
   }
 
   /**
@@ -240,16 +712,23 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
   public void close() throws IOException {
     Integer waitTime = 100;
     while (true) {
-      if (zkLock.isAcquiredInThisProcess()) {
+      if (locksHeld.get() > 0) {
         try {
           logger.info("ZooKeeperRepository's close() called while lock is acquired. " +
                   "Waiting " + waitTime + " ms before trying again.");
-          wait(waitTime);
+          Thread.sleep(waitTime);
         } catch (InterruptedException e) {
           logger.warn("Interrupted while waiting", e);
         }
       } else {
         // TODO: Make sure the race condition between the if condition and the close is harmless...
+        if (leaderLatch != null) {
+          leaderLatch.close();
+        }
+        subjectListing.close();
+        for (NodeCache cache : new ArrayList<NodeCache>(caches)) {
+          closeCache(cache);
+        }
         zkClient.close();
         break;
       }
@@ -270,12 +749,290 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
   protected Map<String, String> exposeConfiguration() {
     final Map<String, String> properties = new LinkedHashMap<String, String>(super.exposeConfiguration());
     properties.put(Config.ZK_ENSEMBLE, zkClient.getZookeeperClient().getCurrentConnectionString());
+    properties.put(Config.ZK_DEDUPLICATE, String.valueOf(blobs.isDeduplicating()));
+    properties.put(Config.ZK_LOCK_TIMEOUT, String.valueOf(lockTimeout));
+    properties.put(Config.ZK_OPTIMISTIC_REGISTRATION, String.valueOf(optimisticRegistration));
+    properties.put(Config.ZK_LOCAL_CACHE_PATH, localCache == null ? "" : localCache.getPath());
+    properties.put(Config.ZK_COMPRESSION_THRESHOLD, String.valueOf(compressionThreshold));
+    properties.put(Config.ZK_CHUNK_SIZE, String.valueOf(chunkSize));
+    properties.put(Config.ZK_LEADER_ELECTION, String.valueOf(leaderElection));
+    properties.put(Config.ZK_ADVERTISED_URL, advertisedUrl);
     return properties;
   }
 
+  @Override
+  public Map<String, String> exposeStatistics() {
+    final Map<String, String> statistics = new LinkedHashMap<String, String>(super.exposeStatistics());
+    statistics.put("zookeeper.lock.acquisitions", String.valueOf(lockAcquisitions.get()));
+    statistics.put("zookeeper.lock.timeouts", String.valueOf(lockTimeouts.get()));
+    statistics.put("zookeeper.lock.wait-ms.total",
+        String.valueOf(TimeUnit.NANOSECONDS.toMillis(lockWaitNanos.get())));
+    statistics.put("zookeeper.lock.wait-ms.max",
+        String.valueOf(TimeUnit.NANOSECONDS.toMillis(maxLockWaitNanos.get())));
+    statistics.put("zookeeper.registration.conflicts", String.valueOf(registrationConflicts.get()));
+    statistics.put("zookeeper.disconnections", String.valueOf(disconnections.get()));
+    if (leaderElection) {
+      LeaderLatch latch = leaderLatch;
+      statistics.put("zookeeper.leader", String.valueOf(latch != null && latch.hasLeadership()));
+      statistics.put("zookeeper.registrations.forwarded", String.valueOf(forwardedRegistrations.get()));
+    }
+    return statistics;
+  }
+
+  /**
+   * Prepares content for storage in a znode: compresses it if it is large
+   * enough, see {@link CompressedContent}, and if it is still larger than the
+   * chunk size, stores it in chunks instead, children of the '.chunks' znode
+   * named after its hash, and returns a reference to them: a NUL byte followed
+   * by "chunks:", the hash, a colon and the number of chunks. Chunks are all
+   * stored before the reference is, so they are never seen incomplete.
+   */
+  private byte[] pack(byte[] content) throws IOException {
+    byte[] packed = CompressedContent.compress(content, compressionThreshold);
+    if (packed.length <= chunkSize) {
+      return packed;
+    }
+    String hash = SchemaBlobStore.hash(packed);
+    int count = (packed.length + chunkSize - 1) / chunkSize;
+    for (int i = 0; i < count; i++) {
+      byte[] chunk = Arrays.copyOfRange(packed, i * chunkSize, Math.min(packed.length, (i + 1) * chunkSize));
+      try {
+        zkClient.create().creatingParentsIfNeeded().forPath(getChunkPath(hash, i), chunk);
+      } catch (KeeperException.NodeExistsException e) {
+        // stored already, by this or another instance
+      } catch (Exception e) {
+        throw new IOException("An exception occurred while accessing ZK!", e);
+      }
+    }
+    return RepositoryUtil.getUtf8Bytes(CHUNKS_REFERENCE + hash + ":" + count);
+  }
+
+  /**
+   * Reverses {@link #pack(byte[])}, reading the chunks the content refers to
+   * if need be.
+   */
+  private byte[] unpack(byte[] stored) throws IOException {
+    List<String> chunkPaths = getChunkPaths(stored);
+    if (chunkPaths == null) {
+      return CompressedContent.decompress(stored);
+    }
+    ByteArrayOutputStream content = new ByteArrayOutputStream(chunkPaths.size() * chunkSize);
+    for (int i = 0; i < chunkPaths.size(); i++) {
+      try {
+        content.write(zkClient.getData().forPath(chunkPaths.get(i)));
+      } catch (KeeperException.NoNodeException e) {
+        throw new IOException("Missing chunk " + chunkPaths.get(i), e);
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("An exception occurred while accessing ZK!", e);
+      }
+    }
+    return CompressedContent.decompress(content.toByteArray());
+  }
+
+  /**
+   * @return the paths of the chunks the provided content refers to, in
+   * order, or null if it is not stored in chunks
+   */
+  private static List<String> getChunkPaths(byte[] stored) throws IOException {
+    if (stored == null || !startsWith(stored, CHUNKS_REFERENCE_PREFIX)) {
+      return null;
+    }
+    String reference = new String(stored, CHUNKS_REFERENCE_PREFIX.length,
+        stored.length - CHUNKS_REFERENCE_PREFIX.length, "UTF-8");
+    int separator = reference.indexOf(':');
+    String hash = reference.substring(0, separator);
+    int count = Integer.parseInt(reference.substring(separator + 1));
+    List<String> paths = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      paths.add(getChunkPath(hash, i));
+    }
+    return paths;
+  }
+
+  /**
+   * {@link #unpack(byte[])} for many contents at once, reading all of their
+   * chunks at once rather than one round trip after the other.
+   *
+   * @return the unpacked contents, by key, but those of which a chunk could
+   * not be read
+   */
+  private Map<String, byte[]> unpackAll(Map<String, byte[]> stored) throws Exception {
+    Map<String, byte[]> unpacked = new HashMap<String, byte[]>();
+    Map<String, List<String>> chunked = new HashMap<String, List<String>>();
+    Map<String, String> chunkPaths = new HashMap<String, String>();
+    for (Map.Entry<String, byte[]> content : stored.entrySet()) {
+      List<String> paths = getChunkPaths(content.getValue());
+      if (paths == null) {
+        unpacked.put(content.getKey(), CompressedContent.decompress(content.getValue()));
+      } else {
+        chunked.put(content.getKey(), paths);
+        for (String path : paths) {
+          chunkPaths.put(path, path);
+        }
+      }
+    }
+    if (chunked.isEmpty()) {
+      return unpacked;
+    }
+    Map<String, byte[]> chunks = readAll(chunkPaths);
+    for (Map.Entry<String, List<String>> content : chunked.entrySet()) {
+      ByteArrayOutputStream packed = new ByteArrayOutputStream(content.getValue().size() * chunkSize);
+      for (String path : content.getValue()) {
+        byte[] chunk = chunks.get(path);
+        if (chunk == null) {
+          packed = null;
+          break;
+        }
+        packed.write(chunk);
+      }
+      if (packed != null) {
+        unpacked.put(content.getKey(), CompressedContent.decompress(packed.toByteArray()));
+      }
+    }
+    return unpacked;
+  }
+
+  /**
+   * Reads the provided znodes all at once rather than one round trip after
+   * the other.
+   *
+   * @param paths the paths of the znodes to read, by key
+   * @return the content of those which could be read in time, by key
+   */
+  private Map<String, byte[]> readAll(Map<String, String> paths) throws Exception {
+    final Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
+    final CountDownLatch done = new CountDownLatch(paths.size());
+    // runs on the ZK event thread, so only collects the results
+    BackgroundCallback callback = new BackgroundCallback() {
+      @Override
+      public void processResult(CuratorFramework client, CuratorEvent event) {
+        try {
+          if (event.getResultCode() == KeeperException.Code.OK.intValue() && event.getData() != null) {
+            contents.put((String) event.getContext(), event.getData());
+          }
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+    for (Map.Entry<String, String> path : paths.entrySet()) {
+      zkClient.getData().inBackground(callback, path.getKey()).forPath(path.getValue());
+    }
+    if (!done.await(readTimeout, TimeUnit.MILLISECONDS)) {
+      logger.warn("Timed out reading {} znodes from ZK", paths.size());
+    }
+    return contents;
+  }
+
+  private static String getChunkPath(String hash, int index) {
+    return CHUNKS + "/" + hash + "." + index;
+  }
+
+  private static boolean startsWith(byte[] content, byte[] prefix) {
+    if (content.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (content[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores schema blobs in znodes named after their hash, children of the
+   * '.blobs' znode.
+   */
+  private class ZooKeeperBlobStore extends SchemaBlobStore {
+
+    private ZooKeeperBlobStore(boolean deduplicate) {
+      super(deduplicate);
+    }
+
+    @Override
+    protected byte[] readBlob(String hash) throws IOException {
+      try {
+        return unpack(zkClient.getData().forPath(BLOBS + "/" + hash));
+      } catch (KeeperException.NoNodeException e) {
+        return null;
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("An exception occurred while accessing ZK!", e);
+      }
+    }
+
+    @Override
+    protected void writeBlob(String hash, byte[] content) throws IOException {
+      byte[] packed = pack(content);
+      try {
+        zkClient.create().creatingParentsIfNeeded().forPath(BLOBS + "/" + hash, packed);
+      } catch (KeeperException.NodeExistsException e) {
+        // stored already, by this or another instance
+      } catch (Exception e) {
+        throw new IOException("An exception occurred while accessing ZK!", e);
+      }
+    }
+  }
+
+
+  /**
+   * The ids of the schemas of a subject, as of a version of its latest_id
+   * znode. Since ids are assigned in sequence, they range from 0 to the latest.
+   */
+  private static final class SchemaIds {
+    private static final SchemaIds NONE = new SchemaIds(-1, -1);
+
+    private final int version;
+    private final int latest;
+
+    private SchemaIds(int version, int latest) {
+      this.version = version;
+      this.latest = latest;
+    }
+  }
+
+  /**
+   * The ids of the schemas of a subject with a given fingerprint, as of a
+   * version of its index znode. There is usually one, more if fingerprints
+   * collide.
+   */
+  private static final class IndexEntry {
+    private static final IndexEntry MISSING = new IndexEntry(-1, "");
+
+    private final int version;
+    private final String content;
+
+    private IndexEntry(int version, String content) {
+      this.version = version;
+      this.content = content;
+    }
+
+    private List<String> ids() {
+      return content.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(content.split("\n"));
+    }
+
+    private String with(String id) {
+      return content.isEmpty() ? id : content + "\n" + id;
+    }
+  }
 
   private class ZooKeeperSubject extends Subject {
-    //private final SubjectConfig config;
+    private final ZooKeeperLock lock = new ZooKeeperLock(LOCKS + "/" + getName(), "subject " + getName());
+    // schema znodes are never modified once created, so they are cached for good
+    private final ConcurrentHashMap<String, String> schemas = new ConcurrentHashMap<String, String>();
+    // the reverse of schemas, sharing its strings
+    private final ConcurrentHashMap<String, String> idsBySchema = new ConcurrentHashMap<String, String>();
+    private final AtomicReference<SchemaIds> schemaIds = new AtomicReference<SchemaIds>(SchemaIds.NONE);
+    private volatile SubjectConfig config;
+    // whether the state above was restored from the local cache
+    private boolean restored;
+    // mirror the znodes which do change, refreshed by watches, null until attached
+    private volatile NodeCache idsNode;
+    private volatile NodeCache configNode;
 
     /**
      * A {@link org.schemarepo.Subject} has a name. The name must not be null or empty, and
@@ -284,33 +1041,163 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
      */
     protected ZooKeeperSubject(String subjectName) {
       super(subjectName);
+    }
 
+    /**
+     * Checks the subject in ZK, migrating it if need be, and starts mirroring
+     * the znodes which change.
+     */
+    private void attach() {
+      requireConnection();
       try {
-        if (zkClient.checkExists().forPath(subjectName) == null) {
+        if (zkClient.checkExists().forPath(getName()) == null) {
           throw new RuntimeException("The Subject does not exist in ZK!");
         }
-          Set<String> schemaFileNames = getSchemaFiles();
-          Set<Integer> foundIds = new HashSet<Integer>();
-          for (Integer id : getSchemaIds()) {
-            if(!foundIds.add(id)) {
-              throw new RuntimeException("Corrupt id file, id '" + id +
-                      "' duplicated in " + getSchemaIdsFilePath());
-            }
-            //fileReadable(getSchemaFile(id));
-            schemaFileNames.remove(getSchemaFileName(id));
-          }
-          if (schemaFileNames.size() > 0) {
-            throw new RuntimeException("Schema files found in subject directory "
-                    + getSubjectPath()
-                    + " that are not referenced in the " + SCHEMA_IDS + " file: "
-                    + schemaFileNames.toString());
-          }
+        if (zkClient.checkExists().forPath(getLatestIdFilePath()) == null) {
+          migrateSchemaIds();
+        }
+        int latest = readSchemaIds().latest;
+        if (restored && !restoredCopyMatches(latest)) {
+          logger.warn("Discarding the local copy of subject {}, which does not match ZK", getName());
+          schemas.clear();
+          idsBySchema.clear();
+          localCache.forget(getName());
+        }
+        if (!isIndexComplete()) {
+          buildIndex();
+        }
+        Set<String> schemaFileNames = getSchemaFiles();
+        for (int id = latest; id >= 0; id--) {
+          schemaFileNames.remove(getSchemaFileName(id));
+        }
+        if (schemaFileNames.size() > 0) {
+          throw new RuntimeException("Schema files found in subject directory "
+                  + getSubjectPath()
+                  + " that are beyond the id in the " + LATEST_ID + " file: "
+                  + schemaFileNames.toString());
+        }
       } catch (IOException e) {
         throw new RuntimeException("An IOException occurred while reading the properties at: " +
                 getConfigFilePath(), e);
       } catch (Exception e) {
         throw new RuntimeException("An exception occurred while accessing ZK!", e);
       }
+
+      // created once the session exists, since their construction waits for ZK
+      idsNode = new NodeCache(zkClient, getLatestIdFilePath());
+      idsNode.getListenable().addListener(new NodeCacheListener() {
+        @Override
+        public void nodeChanged() {
+          idsChanged();
+        }
+      });
+      configNode = new NodeCache(zkClient, getConfigFilePath());
+      configNode.getListenable().addListener(new NodeCacheListener() {
+        @Override
+        public void nodeChanged() {
+          configChanged();
+        }
+      });
+      try {
+        startCache(idsNode);
+        startCache(configNode);
+      } catch (Exception e) {
+        closeCache(idsNode);
+        closeCache(configNode);
+        throw new RuntimeException("An exception occurred while accessing ZK!", e);
+      }
+      idsChanged();
+      configChanged();
+    }
+
+    /**
+     * Takes the state saved in the local cache, without accessing ZK, until
+     * {@link #reconcile()} is called.
+     */
+    private void restore(ZooKeeperLocalCache.SavedSubject saved) {
+      restored = true;
+      for (Map.Entry<String, String> schema : saved.schemas.entrySet()) {
+        schemas.put(schema.getKey(), schema.getValue());
+        idsBySchema.putIfAbsent(schema.getValue(), schema.getKey());
+      }
+      schemaIds.set(new SchemaIds(-1, saved.latestId));
+      config = parseConfig(saved.properties == null ? new byte[0] : saved.properties);
+    }
+
+    /**
+     * Attaches a subject restored from the local cache once the ZK session
+     * is established. Its ids and properties are replaced by those in ZK, and
+     * its schemas are discarded unless they match ZK. Keeps serving what was
+     * restored if that fails, since schemas never change.
+     */
+    private void reconcile() {
+      try {
+        attach();
+      } catch (RuntimeException e) {
+        logger.error("Failed to reconcile subject " + getName() + " with ZK", e);
+      }
+    }
+
+    /**
+     * @return whether the schemas restored from the local cache are those of
+     * the subject in ZK: none is beyond its latest id, and the latest one, if
+     * restored, is the same.
+     */
+    private boolean restoredCopyMatches(int latest) throws Exception {
+      for (String id : schemas.keySet()) {
+        if (Integer.parseInt(id) > latest) {
+          return false;
+        }
+      }
+      String latestId = String.valueOf(latest);
+      String restoredLatest = schemas.get(latestId);
+      if (restoredLatest == null) {
+        return true;
+      }
+      try {
+        return restoredLatest.equals(blobs.load(unpack(zkClient.getData().forPath(getSchemaFilePath(latestId)))));
+      } catch (KeeperException.NoNodeException e) {
+        return false;
+      }
+    }
+
+    private void idsChanged() {
+      NodeCache node = idsNode;
+      ChildData data = node == null ? null : node.getCurrentData();
+      if (data != null) {
+        update(new SchemaIds(data.getStat().getVersion(), parseLatestId(data.getData())));
+      }
+    }
+
+    private void configChanged() {
+      NodeCache node = configNode;
+      ChildData data = node == null ? null : node.getCurrentData();
+      if (data != null) {
+        config = parseConfig(data.getData());
+        if (localCache != null) {
+          localCache.saveProperties(getName(), data.getData());
+        }
+      }
+    }
+
+    /**
+     * Makes the provided ids the current ones, unless newer ones were seen,
+     * since the watches may report a change after this instance made a newer
+     * one itself.
+     */
+    private void update(SchemaIds ids) {
+      while (true) {
+        SchemaIds current = schemaIds.get();
+        if (ids.version <= current.version) {
+          return;
+        }
+        if (schemaIds.compareAndSet(current, ids)) {
+          if (localCache != null) {
+            localCache.saveLatestId(getName(), ids.latest);
+          }
+          return;
+        }
+      }
     }
 
     private String getSchemaFileName(String schemaId) {
@@ -329,6 +1216,10 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
       return getSubjectPath() + "/" + SUBJECT_PROPERTIES;
     }
 
+    private String getLatestIdFilePath() {
+      return getSubjectPath() + "/" + LATEST_ID;
+    }
+
     private String getSchemaIdsFilePath() {
       return getSubjectPath() + "/" + SCHEMA_IDS;
     }
@@ -337,11 +1228,16 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
       return getSubjectPath() + "/" + getSchemaFileName(schemaId);
     }
 
+    private String getIndexPath() {
+      return getSubjectPath() + "/" + FINGERPRINTS;
+    }
+
+    private String getIndexEntryPath(long fingerprint) {
+      return getIndexPath() + "/" + String.format("%016x", fingerprint);
+    }
+
     private Set<String> getSchemaFiles() {
       try {
-        // TODO: Allow this behavior to be disabled once we have async updating
-        // of the cache via ZK Observers... This would protect ZK from getting
-        // hammered too much at the expense of slightly stale data.
         List<String> filesInSubject = zkClient.getChildren().forPath(getSubjectPath());
         Set<String> schemaFiles = new HashSet<String>();
         for (String fileName: filesInSubject) {
@@ -355,60 +1251,169 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
       }
     }
 
-    // schema ids from the schema id file, in order from oldest to newest
-    private List<Integer> getSchemaIds(){
-      // TODO: Make IDs String across the board (not Integer),
-      // TODO: Add pluggable ID generation schemes
+    /**
+     * Reads the schema ids from ZK rather than from the local mirror, which
+     * may lag behind, for registrations to build upon.
+     */
+    private SchemaIds readSchemaIds() {
+      requireConnection();
       try {
-        // TODO: Allow this behavior to be disabled once we have async updating
-        // of the cache via ZK Observers... This would protect ZK from getting
-        // hammered too much at the expense of slightly stale data.
-        byte[] rawContent = zkClient.getData().forPath(getSchemaIdsFilePath());
+        Stat stat = new Stat();
+        byte[] rawContent = zkClient.getData().storingStatIn(stat).forPath(getLatestIdFilePath());
+        SchemaIds ids = new SchemaIds(stat.getVersion(), parseLatestId(rawContent));
+        update(ids);
+        return ids;
+      } catch (Exception e) {
+        throw new RuntimeException("An exception occurred while accessing ZK!", e);
+      }
+    }
 
-        ArrayList<Integer> schemaIdList = new ArrayList<Integer>();
+    private int parseLatestId(byte[] rawContent) {
+      if (rawContent == null || rawContent.length == 0) {
+        return -1;
+      }
+      String content = new String(rawContent);
+      try {
+        return Integer.parseInt(content.trim());
+      } catch (NumberFormatException e) {
+        throw new RuntimeException("Got an invalid ID (" + content + ") in " + getLatestIdFilePath(), e);
+      }
+    }
 
-        Scanner scanner = new Scanner(new ByteArrayInputStream(rawContent));
+    /**
+     * Creates the latest_id file of a subject created before it was
+     * introduced, from the schema_ids file which held every id of the subject
+     * and was rewritten on every registration. The schema_ids file is left as
+     * is, no longer updated, so that instances which were not upgraded yet can
+     * still load the subject.
+     */
+    private void migrateSchemaIds() throws Exception {
+      lock.acquire();
+      try {
+        if (zkClient.checkExists().forPath(getLatestIdFilePath()) != null) {
+          // migrated by another instance in the meantime
+          return;
+        }
+        List<Integer> ids = parseSchemaIds(zkClient.getData().forPath(getSchemaIdsFilePath()));
+        for (int i = 0; i < ids.size(); i++) {
+          if (ids.get(i) != i) {
+            throw new RuntimeException("Cannot migrate " + getSchemaIdsFilePath()
+                    + ", its ids are not in sequence from 0: " + ids);
+          }
+        }
+        String latestId = ids.isEmpty() ? "" : String.valueOf(ids.size() - 1);
+        zkClient.create().forPath(getLatestIdFilePath(), latestId.getBytes());
+        logger.info("Migrated {} to {} in subject {}", SCHEMA_IDS, LATEST_ID, getName());
+      } finally {
+        lock.release();
+      }
+    }
 
-        while (scanner.hasNext()) {
-          String line = scanner.nextLine();
+    private boolean isIndexComplete() throws Exception {
+      try {
+        byte[] rawContent = zkClient.getData().forPath(getIndexPath());
+        return rawContent == null || rawContent.length == 0;
+      } catch (KeeperException.NoNodeException e) {
+        return false;
+      }
+    }
 
-          try {
-            Integer id = Integer.parseInt(line);
-            schemaIdList.add(id);
-          } catch (NumberFormatException e) {
-            logger.error("Got an invalid ID ({}) in {} !", line, getSchemaIdsFilePath(), e);
+    /**
+     * Indexes the schemas of a subject created before schemas were indexed by
+     * fingerprint, or whose indexing was interrupted.
+     */
+    private void buildIndex() throws Exception {
+      lock.acquire();
+      try {
+        if (isIndexComplete()) {
+          // built by another instance in the meantime
+          return;
+        }
+        try {
+          zkClient.create().forPath(getIndexPath(), INDEX_BUILDING.getBytes());
+        } catch (KeeperException.NodeExistsException e) {
+          // left over by an interrupted attempt, resumed below
+        }
+        int latest = readSchemaIds().latest;
+        for (int id = 0; id <= latest; id++) {
+          String idStr = String.valueOf(id);
+          String schema = readSchemaForId(idStr);
+          if (schema != null) {
+            long fingerprint = RepositoryUtil.fingerprint64(schema);
+            IndexEntry entry = readIndexEntry(fingerprint);
+            if (entry.version < 0) {
+              zkClient.create().forPath(getIndexEntryPath(fingerprint), idStr.getBytes());
+            } else if (!entry.ids().contains(idStr)) {
+              zkClient.setData().withVersion(entry.version).forPath(getIndexEntryPath(fingerprint),
+                  entry.with(idStr).getBytes());
+            }
           }
         }
+        zkClient.setData().forPath(getIndexPath(), new byte[0]);
+        logger.info("Indexed the {} schemas of subject {} by fingerprint", latest + 1, getName());
+      } finally {
+        lock.release();
+      }
+    }
 
-        return schemaIdList;
+    private IndexEntry readIndexEntry(long fingerprint) {
+      requireConnection();
+      try {
+        Stat stat = new Stat();
+        byte[] rawContent = zkClient.getData().storingStatIn(stat).forPath(getIndexEntryPath(fingerprint));
+        return new IndexEntry(stat.getVersion(), new String(rawContent));
+      } catch (KeeperException.NoNodeException e) {
+        return IndexEntry.MISSING;
       } catch (Exception e) {
         throw new RuntimeException("An exception occurred while accessing ZK!", e);
       }
     }
 
-    private Integer getLatestSchemaId(List<Integer> currentSchemaIds) {
+    // schema ids from the schema id file, in order from oldest to newest
+    private List<Integer> parseSchemaIds(byte[] rawContent) {
       // TODO: Make IDs String across the board (not Integer),
       // TODO: Add pluggable ID generation schemes
-      Integer lastId = -1;
-      for (Integer id : currentSchemaIds) {
-        if (id > lastId) {
-          lastId = id;
+      ArrayList<Integer> schemaIdList = new ArrayList<Integer>();
+
+      Scanner scanner = new Scanner(new ByteArrayInputStream(rawContent));
+
+      while (scanner.hasNext()) {
+        String line = scanner.nextLine();
+
+        try {
+          Integer id = Integer.parseInt(line);
+          schemaIdList.add(id);
+        } catch (NumberFormatException e) {
+          logger.error("Got an invalid ID ({}) in {} !", line, getSchemaIdsFilePath(), e);
         }
       }
-      return lastId;
+
+      return schemaIdList;
     }
 
-    private Integer getLatestSchemaId() {
-      return getLatestSchemaId(getSchemaIds());
+    private SubjectConfig parseConfig(byte[] rawProperties) {
+      try {
+        Properties props = new Properties();
+        props.load(new ByteArrayInputStream(rawProperties));
+        return RepositoryUtil.configFromProperties(props);
+      } catch (IOException e) {
+        throw new RuntimeException("An IOException occurred while reading the properties at: " +
+                getConfigFilePath(), e);
+      }
     }
 
     private String readSchemaForId(String schemaId) {
+      String schema = schemas.get(schemaId);
+      if (schema != null) {
+        return schema;
+      }
+      requireConnection();
       try {
         byte[] rawContent = zkClient.getData().forPath(getSchemaFilePath(schemaId));
         if (rawContent == null || rawContent.length == 0) {
           return null;
         } else {
-          return new String(rawContent);
+          return cache(schemaId, blobs.load(unpack(rawContent)));
         }
       } catch (KeeperException.NoNodeException e) {
         // The schema for this ID does not exist in ZK.
@@ -418,64 +1423,139 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
       }
     }
 
-    private final String endOfLine = System.getProperty("line.separator");
-
-    private String serializeSchemaIds(List<Integer> schemaIds) {
-      // TODO: Make IDs String across the board (not Integer),
-      // TODO: Add pluggable ID generation schemes
-      StringBuilder sb = new StringBuilder();
-      boolean firstLine = true;
-      for (Integer id: schemaIds) {
-        if (firstLine) {
-          firstLine = false;
-        } else {
-          sb.append(endOfLine);
-        }
-        sb.append(id.toString());
+    private String cache(String id, String schema) {
+      String existing = schemas.putIfAbsent(id, schema);
+      if (existing != null) {
+        return existing;
       }
-      return sb.toString();
+      idsBySchema.putIfAbsent(schema, id);
+      if (localCache != null) {
+        localCache.saveSchema(getName(), id, schema);
+      }
+      return schema;
     }
 
-    private synchronized SchemaEntry createNewSchema(String schema) {
+    private synchronized SchemaEntry createNewSchema(String schema, SchemaIds current,
+                                                     long fingerprint, IndexEntry indexEntry) {
       try {
         // TODO: Make IDs String across the board (not Integer),
         // TODO: Add pluggable ID generation schemes
-        List<Integer> allSchemaIds = getSchemaIds();
-        Integer newId = getLatestSchemaId(allSchemaIds) + 1;
-        allSchemaIds.add(newId);
-        byte[] newSchemaFile = schema.getBytes();
-        byte[] newSchemaIdsFile = serializeSchemaIds(allSchemaIds).getBytes();
-        // Create new schema and update schema IDs file in one ZK transaction
-        zkClient.inTransaction().
-                create().forPath(getSchemaFilePath(newId.toString()), newSchemaFile).
+        Integer newId = current.latest + 1;
+        String id = newId.toString();
+        byte[] newSchemaFile = blobs.store(schema);
+        byte[] packed = pack(newSchemaFile);
+        // Create new schema, update the latest schema ID file and index the
+        // schema by fingerprint in one ZK transaction, which fails if the
+        // latest ID or the index entry changed since they were read. None of
+        // them depends on the number of schemas already in the subject.
+        CuratorTransactionFinal transaction = zkClient.inTransaction().
+                create().forPath(getSchemaFilePath(id), packed).
                 and().
-                setData().forPath(getSchemaIdsFilePath(), newSchemaIdsFile).
-                and().commit();
+                setData().withVersion(current.version).forPath(getLatestIdFilePath(), id.getBytes()).
+                and();
+        if (indexEntry.version < 0) {
+          transaction = transaction.create().forPath(getIndexEntryPath(fingerprint), id.getBytes()).and();
+        } else {
+          // another schema has the same fingerprint
+          transaction = transaction.setData().withVersion(indexEntry.version).
+                  forPath(getIndexEntryPath(fingerprint), indexEntry.with(id).getBytes()).and();
+        }
+        Collection<CuratorTransactionResult> results = transaction.commit();
 
-          // TODO: Keep new schema in a local cache
-          return new SchemaEntry(String.valueOf(newId), schema);
+        String cached = cache(id, SchemaBlobStore.referencedHash(newSchemaFile) != null
+            ? blobs.load(newSchemaFile) : schema);
+        for (CuratorTransactionResult result : results) {
+          if (result.getType() == OperationType.SET_DATA && result.getForPath().endsWith("/" + LATEST_ID)) {
+            update(new SchemaIds(result.getResultStat().getVersion(), newId));
+          }
+        }
+        return new SchemaEntry(id, cached);
+      } catch (KeeperException.BadVersionException e) {
+        // another schema was registered since the latest ID was read
+        return CONFLICT;
+      } catch (KeeperException.NodeExistsException e) {
+        return CONFLICT;
       } catch (Exception e) {
         throw new RuntimeException(
                 "An exception occurred while accessing ZK!", e);
       }
     }
 
+    /**
+     * Registers the provided schema unless it already is, and only if the
+     * latest schema is the expected one when required. The registration is
+     * retried when it conflicts with others, which may only happen if they do
+     * not hold the lock of the subject either, which is skipped in optimistic
+     * mode. Each retry follows a random pause, and the registration fails
+     * once conflicts lasted for the lock timeout, since a conflict which
+     * persists, such as with a schema znode left beyond the latest id, would
+     * never be resolved by retrying.
+     *
+     * @throws IllegalStateException if the registration kept conflicting
+     */
+    private SchemaEntry register(String schema, boolean ifLatest, SchemaEntry expectedLatest) {
+      // taken by the leader as well, since there may briefly be two of them
+      // when the leadership changes
+      boolean locked = !optimisticRegistration;
+      if (locked) {
+        lock.acquire();
+      }
+      try {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lockTimeout);
+        for (int conflicts = 1; ; conflicts++) {
+          // read from ZK rather than from the mirror, which may lag behind
+          SchemaIds ids = readSchemaIds();
+          if (ifLatest) {
+            SchemaEntry latestInZk = latest(ids);
+            if (!(expectedLatest == latestInZk // both null
+                    || (expectedLatest != null && expectedLatest.equals(latestInZk)))) {
+              return null;
+            }
+          }
+          long fingerprint = RepositoryUtil.fingerprint64(schema);
+          IndexEntry indexEntry = readIndexEntry(fingerprint);
+          SchemaEntry entry = lookupBySchema(schema, indexEntry);
+          if (entry == null) {
+            entry = createNewSchema(schema, ids, fingerprint, indexEntry);
+          }
+          if (entry != CONFLICT) {
+            return entry;
+          }
+          registrationConflicts.incrementAndGet();
+          if (System.nanoTime() - deadline >= 0) {
+            throw new IllegalStateException("Gave up registering a schema in subject " + getName()
+                + " after " + conflicts + " conflicts in " + lockTimeout + " ms");
+          }
+          backOff(conflicts);
+        }
+      } finally {
+        if (locked) {
+          lock.release();
+        }
+      }
+    }
+
+    /**
+     * Pauses for a random time, up to twice longer after each conflict until
+     * MAX_CONFLICT_BACKOFF_MS, so that conflicting registrations do
+     * not keep on retrying in step.
+     */
+    private void backOff(int conflicts) {
+      int bound = Math.min(MAX_CONFLICT_BACKOFF_MS, 1 << Math.min(conflicts, 7));
+      try {
+        Thread.sleep(backoffJitter.nextInt(bound) + 1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while registering a schema in subject " + getName(), e);
+      }
+    }
+
     /**
      * @return The {@link org.schemarepo.SubjectConfig} for this Subject
      */
     @Override
     public SubjectConfig getConfig() {
-      try {
-        // TODO: Allow this behavior to be disabled once we have async updating
-        // of the cache via ZK Observers... This would protect ZK from getting
-        // hammered too much at the expense of slightly stale data.
-        Properties props = new Properties();
-        byte[] rawProperties = zkClient.getData().forPath(getConfigFilePath());
-        props.load(new ByteArrayInputStream(rawProperties));
-        return RepositoryUtil.configFromProperties(props);
-      } catch (Exception e) {
-        throw new RuntimeException("An exception occurred while accessing ZK!", e);
-      }
+      return config;
     }
 
     /**
@@ -513,18 +1593,17 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
     @Override
     public SchemaEntry register(String schema) throws SchemaValidationException {
       RepositoryUtil.validateSchemaOrSubject(schema);
-      SchemaEntry cachedSchema = null; // TODO: lookup within local cache first
+      // the mirror may lag behind, but what it holds is registered for good
+      SchemaEntry cachedSchema = lookupCached(schema);
       if (cachedSchema != null) {
         return cachedSchema;
-      } else {
-        acquireLock();
-        SchemaEntry entry = lookupBySchema(schema);
-        if (entry == null) {
-          entry = createNewSchema(schema);
-        }
-        releaseLock();
-        return entry;
       }
+      requireConnection();
+      RESTRepositoryClient leader = leader();
+      if (leader != null) {
+        return forward(leader, schema, false, null);
+      }
+      return register(schema, false, null);
     }
 
     /**
@@ -541,13 +1620,34 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
      */
     @Override
     public SchemaEntry registerIfLatest(String schema, SchemaEntry latest) throws SchemaValidationException {
-      SchemaEntry latestInZk = latest();
-      if (latest == latestInZk // both null
-              || (latest != null && latest.equals(latestInZk))) {
-        return register(schema);
-      } else {
+      RepositoryUtil.validateSchemaOrSubject(schema);
+      requireConnection();
+      RESTRepositoryClient leader = leader();
+      if (leader != null) {
+        return forward(leader, schema, true, latest);
+      }
+      return register(schema, true, latest);
+    }
+
+    /**
+     * Has the leader register the provided schema, caching the resulting
+     * entry, which the watches would bring in later otherwise.
+     */
+    private SchemaEntry forward(RESTRepositoryClient leader, String schema, boolean ifLatest,
+                                SchemaEntry expectedLatest) throws SchemaValidationException {
+      Subject subject = leader.lookup(getName());
+      if (subject == null) {
+        // the ZK server of the leader lags behind the one of this instance.
+        // Registering the subject, which leaves it as is since it exists,
+        // writes through that server, which thus catches up first.
+        subject = leader.register(getName(), config);
+      }
+      SchemaEntry entry = ifLatest ? subject.registerIfLatest(schema, expectedLatest) : subject.register(schema);
+      forwardedRegistrations.incrementAndGet();
+      if (entry == null) {
         return null;
       }
+      return new SchemaEntry(entry.getId(), cache(entry.getId(), entry.getSchema()));
     }
 
     /**
@@ -561,11 +1661,36 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
     @Override
     public SchemaEntry lookupBySchema(String schema) {
       RepositoryUtil.validateSchemaOrSubject(schema);
-      for (Integer id : getSchemaIds()) {
-        String idStr = id.toString();
-        String schemaInFile = readSchemaForId(idStr);
+      SchemaEntry entry = lookupCached(schema);
+      if (entry == null) {
+        entry = lookupBySchema(schema, readIndexEntry(RepositoryUtil.fingerprint64(schema)));
+      }
+      return entry;
+    }
+
+    /**
+     * Strong lookups of a schema which is not cached first wait for the ZK
+     * server to catch up, since it may have been registered through another.
+     */
+    @Override
+    public SchemaEntry lookupBySchema(String schema, ReadConsistency consistency) {
+      if (consistency.getLevel() == ReadConsistency.Level.STRONG && lookupCached(schema) == null) {
+        syncSubject();
+      }
+      return lookupBySchema(schema);
+    }
+
+    private SchemaEntry lookupCached(String schema) {
+      String id = idsBySchema.get(schema);
+      return id == null ? null : new SchemaEntry(id, schemas.get(id));
+    }
+
+    private SchemaEntry lookupBySchema(String schema, IndexEntry indexEntry) {
+      // confirmed against the schemas, since fingerprints may collide
+      for (String id : indexEntry.ids()) {
+        String schemaInFile = readSchemaForId(id);
         if (schema.equals(schemaInFile)) {
-          return new SchemaEntry(idStr, schema);
+          return new SchemaEntry(id, schemaInFile);
         }
       }
       return null;
@@ -581,16 +1706,19 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
      */
     @Override
     public SchemaEntry lookupById(String id) {
-      SchemaEntry cachedSchema = null; // TODO: lookup within local cache first
-      if (cachedSchema != null) {
-        return cachedSchema;
-      } else {
-        String schema = readSchemaForId(id);
-        if (schema != null) {
-          return new SchemaEntry(id, schema);
-        }
-        return null;
+      String schema = readSchemaForId(id);
+      if (schema != null) {
+        return new SchemaEntry(id, schema);
+      }
+      return null;
+    }
+
+    @Override
+    public SchemaEntry lookupById(String id, ReadConsistency consistency) {
+      if (consistency.getLevel() == ReadConsistency.Level.STRONG && !schemas.containsKey(id)) {
+        syncSubject();
       }
+      return lookupById(id);
     }
 
     /**
@@ -602,19 +1730,30 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
      */
     @Override
     public SchemaEntry latest() {
+      return latest(schemaIds.get());
+    }
+
+    /**
+     * Strong reads of the latest schema read its id from ZK, after the ZK
+     * server caught up, rather than from the mirror, which may lag behind.
+     */
+    @Override
+    public SchemaEntry latest(ReadConsistency consistency) {
+      return latest(currentIds(consistency));
+    }
+
+    private SchemaEntry latest(SchemaIds ids) {
       // TODO: Make IDs String across the board (not Integer),
       // TODO: Add pluggable ID generation schemes
-      Integer latestId = getLatestSchemaId(); // This part is not cacheable
-      SchemaEntry cachedSchema = null; // TODO: lookup within local cache first
-      if (cachedSchema != null) {
-        return cachedSchema;
+      if (ids.latest < 0) {
+        return null;
+      }
+      String latestId = String.valueOf(ids.latest);
+      String latestSchemaLiteral = readSchemaForId(latestId);
+      if (latestSchemaLiteral == null) {
+        return null;
       } else {
-        String latestSchemaLiteral = readSchemaForId(latestId.toString());
-        if (latestSchemaLiteral == null) {
-          return null;
-        } else {
-          return new SchemaEntry(latestId.toString(), latestSchemaLiteral);
-        }
+        return new SchemaEntry(latestId, latestSchemaLiteral);
       }
     }
 
@@ -628,16 +1767,88 @@ public class ZooKeeperRepository extends AbstractBackendRepository {
      */
     @Override
     public Iterable<SchemaEntry> allEntries() {
-      // TODO: Get known schemas from local cache.
-      // TODO: Only touch ZK for list of schema IDs and unknown schemas within that list
+      return allEntries(schemaIds.get().latest);
+    }
+
+    @Override
+    public Iterable<SchemaEntry> allEntries(ReadConsistency consistency) {
+      return allEntries(currentIds(consistency).latest);
+    }
+
+    private Iterable<SchemaEntry> allEntries(int latest) {
+      prefetch(latest);
       List<SchemaEntry> entries = new ArrayList<SchemaEntry>();
-      for (Integer id : getSchemaIds()) {
-        String idStr = id.toString();
+      for (int id = latest; id >= 0; id--) {
+        String idStr = String.valueOf(id);
         String schema = readSchemaForId(idStr);
         entries.add(new SchemaEntry(idStr, schema));
       }
-      Collections.reverse(entries);
       return entries;
     }
+
+    /**
+     * @return the ids read from ZK after syncing for strong reads, and the
+     * mirrored ones otherwise
+     */
+    private SchemaIds currentIds(ReadConsistency consistency) {
+      if (consistency.getLevel() != ReadConsistency.Level.STRONG) {
+        return schemaIds.get();
+      }
+      syncSubject();
+      return readSchemaIds();
+    }
+
+    private void syncSubject() {
+      requireConnection();
+      sync(getSubjectPath());
+    }
+
+    /**
+     * Reads the schemas up to the provided id which are not cached yet, all
+     * at once rather than one round trip after the other, and so are the
+     * chunks and the blobs they refer to, in a round each. Those which could
+     * not be read are left for {@link #readSchemaForId(String)} to read again.
+     */
+    private void prefetch(int latest) {
+      Map<String, String> missing = new HashMap<String, String>();
+      for (int id = 0; id <= latest; id++) {
+        String idStr = String.valueOf(id);
+        if (!schemas.containsKey(idStr)) {
+          missing.put(idStr, getSchemaFilePath(idStr));
+        }
+      }
+      if (missing.size() < 2) {
+        return;
+      }
+      requireConnection();
+      try {
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> content : readAll(missing).entrySet()) {
+          if (content.getValue().length > 0) {
+            contents.put(content.getKey(), content.getValue());
+          }
+        }
+        contents = unpackAll(contents);
+        Map<String, String> blobPaths = new HashMap<String, String>();
+        for (byte[] content : contents.values()) {
+          String hash = SchemaBlobStore.referencedHash(content);
+          if (hash != null) {
+            blobPaths.put(hash, BLOBS + "/" + hash);
+          }
+        }
+        Map<String, byte[]> blobContents = blobPaths.isEmpty()
+            ? Collections.<String, byte[]>emptyMap() : unpackAll(readAll(blobPaths));
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+          String hash = SchemaBlobStore.referencedHash(content.getValue());
+          byte[] blob = hash == null ? null : blobContents.get(hash);
+          cache(content.getKey(), blobs.load(content.getValue(), blob));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while reading from ZK", e);
+      } catch (Exception e) {
+        throw new RuntimeException("An exception occurred while accessing ZK!", e);
+      }
+    }
   }
 }
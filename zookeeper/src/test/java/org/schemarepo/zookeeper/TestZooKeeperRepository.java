@@ -19,18 +19,39 @@
 package org.schemarepo.zookeeper;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.RetryNTimes;
 import org.apache.curator.test.TestingCluster;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.schemarepo.AbstractTestPersistentRepository;
+import org.schemarepo.ReadConsistency;
+import org.schemarepo.RepositoryUtil;
+import org.schemarepo.SchemaBlobStore;
+import org.schemarepo.SchemaEntry;
+import org.schemarepo.Subject;
 import org.schemarepo.ValidatorFactory;
 import org.schemarepo.config.Config;
+import org.schemarepo.server.RepositoryServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -91,16 +112,539 @@ public class TestZooKeeperRepository extends AbstractTestPersistentRepository<Zo
 
   @Override
   protected ZooKeeperRepository createRepository() {
-    return newRepo(REPO_PATH);
+    return newRepo();
   }
 
-  private ZooKeeperRepository newRepo(String path) {
-    return new ZooKeeperRepository(testingClusterConnectionString,
-            path,
-            Config.getIntDefault(Config.ZK_CONNECTION_TIMEOUT),
-            Config.getIntDefault(Config.ZK_SESSION_TIMEOUT),
-            Config.getIntDefault(Config.ZK_CURATOR_SLEEP_TIME_BETWEEN_RETRIES),
-            Config.getIntDefault(Config.ZK_CURATOR_NUMBER_OF_RETRIES),
+  private ZooKeeperRepository newRepo() {
+    return newRepo(Collections.<String, String>emptyMap());
+  }
+
+  /**
+   * @param overrides the settings which differ from those of the repository
+   * of the tests, which uses the testing cluster and the defaults otherwise
+   */
+  private ZooKeeperRepository newRepo(Map<String, String> overrides) {
+    Properties settings = new Properties();
+    settings.put(Config.ZK_ENSEMBLE, testingClusterConnectionString);
+    settings.put(Config.ZK_PATH_PREFIX, REPO_PATH);
+    settings.put(Config.ZK_OPTIMISTIC_REGISTRATION, String.valueOf(isOptimisticRegistration()));
+    settings.putAll(overrides);
+    return new ZooKeeperRepository(setting(settings, Config.ZK_ENSEMBLE),
+            setting(settings, Config.ZK_PATH_PREFIX),
+            Integer.valueOf(setting(settings, Config.ZK_SESSION_TIMEOUT)),
+            Integer.valueOf(setting(settings, Config.ZK_CONNECTION_TIMEOUT)),
+            Integer.valueOf(setting(settings, Config.ZK_CURATOR_SLEEP_TIME_BETWEEN_RETRIES)),
+            Integer.valueOf(setting(settings, Config.ZK_CURATOR_NUMBER_OF_RETRIES)),
+            Boolean.valueOf(setting(settings, Config.ZK_DEDUPLICATE)),
+            Integer.valueOf(setting(settings, Config.ZK_LOCK_TIMEOUT)),
+            Boolean.valueOf(setting(settings, Config.ZK_OPTIMISTIC_REGISTRATION)),
+            setting(settings, Config.ZK_LOCAL_CACHE_PATH),
+            Integer.valueOf(setting(settings, Config.ZK_COMPRESSION_THRESHOLD)),
+            Integer.valueOf(setting(settings, Config.ZK_CHUNK_SIZE)),
+            Boolean.valueOf(setting(settings, Config.ZK_LEADER_ELECTION)),
+            setting(settings, Config.ZK_ADVERTISED_URL),
             new ValidatorFactory.Builder().build());
   }
+
+  private static String setting(Properties settings, String key) {
+    return settings.getProperty(key, Config.getDefault(key));
+  }
+
+  /**
+   * @return the provided keys and values, in pairs
+   */
+  private static Map<String, String> settings(String... keysAndValues) {
+    Map<String, String> settings = new HashMap<String, String>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      settings.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return settings;
+  }
+
+  protected boolean isOptimisticRegistration() {
+    return Boolean.valueOf(Config.getDefault(Config.ZK_OPTIMISTIC_REGISTRATION));
+  }
+
+  @Test
+  public void testDeduplication() throws Exception {
+    repo.register("plain", null).register("shared");
+    repo.close();
+
+    repo = newRepo(settings(Config.ZK_DEDUPLICATE, "true"));
+    repo.register("first", null).register("shared");
+    repo.register("second", null).register("shared");
+    String hash = SchemaBlobStore.hash(RepositoryUtil.getUtf8Bytes("shared"));
+    Assert.assertEquals(Collections.singletonList(hash),
+        zkClient.getChildren().forPath(REPO_PATH + "/.blobs"));
+    Assert.assertEquals(hash, SchemaBlobStore.referencedHash(
+        zkClient.getData().forPath(REPO_PATH + "/first/0.schema")));
+    Assert.assertEquals(3, size(repo.subjects()));
+    repo.close();
+
+    repo = newRepo();
+    Assert.assertEquals(new SchemaEntry("0", "shared"), repo.lookup("plain").latest());
+    String first = repo.lookup("first").latest().getSchema();
+    Assert.assertEquals("shared", first);
+    Assert.assertSame(first, repo.lookup("second").lookupById("0").getSchema());
+  }
+
+  @Test
+  public void testCompressionAndChunking() throws Exception {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      large.append("{\"name\": \"field").append(i).append("\", \"type\": \"string\"}\n");
+    }
+    String largeSchema = large.toString();
+    repo.close();
+
+    repo = newRepo(settings(Config.ZK_COMPRESSION_THRESHOLD, "100", Config.ZK_CHUNK_SIZE, "1024"));
+    Subject subject = repo.register("compressed", null);
+    subject.register("small");
+    subject.register(largeSchema);
+    repo.register("deduplicated", null);
+    repo.close();
+    Assert.assertEquals("small", new String(zkClient.getData().forPath(REPO_PATH + "/compressed/0.schema")));
+    Assert.assertTrue(zkClient.getChildren().forPath(REPO_PATH + "/.chunks").size() > 1);
+
+    repo = newRepo(settings(Config.ZK_DEDUPLICATE, "true",
+        Config.ZK_COMPRESSION_THRESHOLD, "100", Config.ZK_CHUNK_SIZE, "1024"));
+    repo.lookup("deduplicated").register(largeSchema);
+    repo.close();
+
+    // read back by an instance which would neither compress nor chunk
+    repo = newRepo();
+    Assert.assertEquals(new SchemaEntry("1", largeSchema), repo.lookup("compressed").lookupById("1"));
+    Assert.assertEquals(new SchemaEntry("1", largeSchema), repo.lookup("compressed").lookupBySchema(largeSchema));
+    Assert.assertEquals(new SchemaEntry("0", largeSchema), repo.lookup("deduplicated").latest());
+    Assert.assertEquals(2, size(repo.lookup("compressed").allEntries()));
+  }
+
+  @Test
+  public void testDegradedWhileDisconnected() throws Exception {
+    Subject subject = repo.register("degraded", null);
+    subject.register("sc1");
+    Assert.assertNull(repo.getDegradation());
+
+    repo.connectionStateChanged(ConnectionState.SUSPENDED);
+    Assert.assertNotNull(repo.getDegradation());
+    repo.isValid();
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.lookupById("0"));
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.lookupBySchema("sc1"));
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.latest());
+    Assert.assertEquals(1, size(repo.subjects()));
+    try {
+      subject.register("sc2");
+      Assert.fail("Registered a schema while disconnected");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      subject.lookupById("1");
+      Assert.fail("Read an uncached schema while disconnected");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    repo.connectionStateChanged(ConnectionState.RECONNECTED);
+    Assert.assertNull(repo.getDegradation());
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), subject.register("sc2"));
+    Assert.assertEquals("1", repo.exposeStatistics().get("zookeeper.disconnections"));
+  }
+
+  @Test
+  public void testFollowersForwardRegistrationsToTheLeader() throws Exception {
+    Properties props = new Properties();
+    props.put(Config.REPO_CLASS, ZooKeeperRepository.class.getName());
+    props.put(Config.ZK_ENSEMBLE, testingClusterConnectionString);
+    props.put(Config.ZK_PATH_PREFIX, REPO_PATH);
+    props.put(Config.ZK_LEADER_ELECTION, "true");
+    props.put(Config.ZK_ADVERTISED_URL, "http://localhost:8124/schema-repo/");
+    props.put(Config.JETTY_HOST, "localhost");
+    props.put(Config.JETTY_PORT, "8124");
+    props.put(Config.JETTY_GRACEFUL_SHUTDOWN, "100");
+    RepositoryServer leader = new RepositoryServer(props);
+    leader.start();
+    ZooKeeperRepository follower = null;
+    try {
+      follower = newRepo(settings(Config.ZK_LEADER_ELECTION, "true",
+          Config.ZK_ADVERTISED_URL, "http://localhost:1/schema-repo/"));
+      Subject subject = null;
+      long deadline = System.currentTimeMillis() + 10000;
+      while (subject == null) {
+        try {
+          subject = follower.register("forwarded", null);
+        } catch (IllegalStateException e) {
+          // no leader elected yet
+          if (System.currentTimeMillis() > deadline) {
+            throw e;
+          }
+          Thread.sleep(10);
+        }
+      }
+      Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.register("sc1"));
+      Assert.assertNull(subject.registerIfLatest("sc2", null));
+      Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.lookupById("0"));
+      Assert.assertEquals("false", follower.exposeStatistics().get("zookeeper.leader"));
+      Assert.assertEquals("3", follower.exposeStatistics().get("zookeeper.registrations.forwarded"));
+      Assert.assertNotNull(zkClient.checkExists().forPath(REPO_PATH + "/forwarded/0.schema"));
+    } finally {
+      if (follower != null) {
+        follower.close();
+      }
+      leader.stop();
+    }
+  }
+
+  @Test
+  public void testChangesFromAnotherInstanceAreSeen() throws Exception {
+    Subject subject = repo.register("watched", null);
+    Assert.assertNull(subject.latest());
+
+    ZooKeeperRepository other = newRepo();
+    try {
+      other.lookup("watched").register("sc1");
+    } finally {
+      other.close();
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (subject.latest() == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.latest());
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.lookupBySchema("sc1"));
+
+    other = newRepo();
+    try {
+      other.lookup("watched").register("sc2");
+    } finally {
+      other.close();
+    }
+    // registrations build upon the ids in ZK, whether the watch fired yet or not
+    Assert.assertEquals(new SchemaEntry("2", "sc3"), subject.register("sc3"));
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), subject.lookupById("1"));
+  }
+
+  @Test
+  public void testSubjectsFromAnotherInstanceAreListed() throws Exception {
+    repo.register("local", null);
+    Assert.assertEquals(1, size(repo.subjects()));
+
+    ZooKeeperRepository other = newRepo();
+    try {
+      other.register("remote", null).register("sc1");
+    } finally {
+      other.close();
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (size(repo.subjects()) < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(2, size(repo.subjects()));
+    awaitLatest(repo.lookup("remote"), new SchemaEntry("0", "sc1"));
+  }
+
+  @Test
+  public void testStrongReadsSeeRegistrationsFromAnotherInstance() throws Exception {
+    Subject subject = repo.register("strong", null);
+    subject.register("sc1");
+
+    ZooKeeperRepository other = newRepo();
+    try {
+      Subject otherSubject = other.lookup("strong");
+      Assert.assertEquals(new SchemaEntry("0", "sc1"), otherSubject.latest());
+      subject.register("sc2");
+      // without waiting for the watches to fire
+      Assert.assertEquals(new SchemaEntry("1", "sc2"), otherSubject.latest(ReadConsistency.STRONG));
+      Assert.assertEquals(2, size(otherSubject.allEntries(ReadConsistency.STRONG)));
+      Assert.assertEquals(new SchemaEntry("1", "sc2"), otherSubject.lookupById("1", ReadConsistency.STRONG));
+    } finally {
+      other.close();
+    }
+  }
+
+  @Test
+  public void testWarmStartFromLocalCache() throws Exception {
+    String localCachePath = "target/test/" + getClass().getSimpleName() + "-" + System.nanoTime();
+    repo.close();
+    repo = newRepo(settings(Config.ZK_LOCAL_CACHE_PATH, localCachePath));
+    awaitSession(repo);
+    Subject subject = repo.register("warm", null);
+    subject.register("sc1");
+    subject.register("sc2");
+    repo.close();
+
+    // an unreachable ensemble, the session is never established
+    repo = newRepo(settings(Config.ZK_ENSEMBLE, "localhost:1", Config.ZK_LOCAL_CACHE_PATH, localCachePath));
+    subject = repo.lookup("warm");
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.lookupById("0"));
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), subject.lookupBySchema("sc2"));
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), subject.latest());
+    Assert.assertEquals(1, size(repo.subjects()));
+    try {
+      subject.register("sc3");
+      Assert.fail("Registered a schema without a ZK session");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    repo.close();
+
+    // another instance registered a schema while this one was down
+    ZooKeeperRepository other = newRepo();
+    try {
+      other.lookup("warm").register("sc3");
+    } finally {
+      other.close();
+    }
+    repo = newRepo(settings(Config.ZK_LOCAL_CACHE_PATH, localCachePath));
+    awaitSession(repo);
+    subject = repo.lookup("warm");
+    Assert.assertEquals(new SchemaEntry("2", "sc3"), subject.latest());
+    Assert.assertEquals(new SchemaEntry("3", "sc4"), subject.register("sc4"));
+  }
+
+  @Test
+  public void testLocalCacheNotMatchingZkIsDiscarded() throws Exception {
+    String localCachePath = "target/test/" + getClass().getSimpleName() + "-" + System.nanoTime();
+    repo.close();
+    repo = newRepo(settings(Config.ZK_LOCAL_CACHE_PATH, localCachePath));
+    awaitSession(repo);
+    repo.register("replaced", null).register("sc1");
+    repo.close();
+
+    // the subject is created anew, with another schema under the same id
+    zkClient.delete().deletingChildrenIfNeeded().forPath(REPO_PATH);
+    ZooKeeperRepository other = newRepo();
+    try {
+      other.register("replaced", null).register("other");
+    } finally {
+      other.close();
+    }
+
+    repo = newRepo(settings(Config.ZK_LOCAL_CACHE_PATH, localCachePath));
+    awaitSession(repo);
+    Assert.assertEquals(new SchemaEntry("0", "other"), repo.lookup("replaced").lookupById("0"));
+    Assert.assertNull(repo.lookup("replaced").lookupBySchema("sc1"));
+  }
+
+  /**
+   * Reads the provided znode once the server the client of the tests is
+   * connected to caught up with the leader, since the repositories of the
+   * tests may write through other servers.
+   */
+  private static byte[] readSynced(String path) throws Exception {
+    final CountDownLatch synced = new CountDownLatch(1);
+    zkClient.sync().inBackground(new BackgroundCallback() {
+      @Override
+      public void processResult(CuratorFramework client, CuratorEvent event) {
+        synced.countDown();
+      }
+    }).forPath(path);
+    Assert.assertTrue(synced.await(10, TimeUnit.SECONDS));
+    return zkClient.getData().forPath(path);
+  }
+
+  /**
+   * Waits for the watches of the provided subject to report the expected
+   * latest entry, registered through another instance.
+   */
+  private static void awaitLatest(Subject subject, SchemaEntry expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!expected.equals(subject.latest()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(expected, subject.latest());
+  }
+
+  private static void awaitSession(ZooKeeperRepository repository) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!repository.isSessionEstablished() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue(repository.isSessionEstablished());
+  }
+
+  @Test
+  public void testSchemaIdsMigration() throws Exception {
+    // a subject as stored before latest_id replaced schema_ids
+    String subjectPath = REPO_PATH + "/legacy";
+    zkClient.create().creatingParentsIfNeeded().forPath(subjectPath);
+    zkClient.create().forPath(subjectPath + "/subject.properties");
+    zkClient.create().forPath(subjectPath + "/0.schema", "sc1".getBytes());
+    zkClient.create().forPath(subjectPath + "/1.schema", "sc2".getBytes());
+    zkClient.create().forPath(subjectPath + "/schema_ids", "0\n1".getBytes());
+
+    // created through another server than the one of the repository
+    long deadline = System.currentTimeMillis() + 10000;
+    while (repo.lookup("legacy") == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Subject subject = repo.lookup("legacy");
+    awaitLatest(subject, new SchemaEntry("1", "sc2"));
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), subject.lookupBySchema("sc1"));
+    Assert.assertEquals(new SchemaEntry("2", "sc3"), subject.register("sc3"));
+    // kept as it was, for instances which were not upgraded yet
+    Assert.assertEquals("0\n1", new String(readSynced(subjectPath + "/schema_ids")));
+    Assert.assertEquals("2", new String(readSynced(subjectPath + "/latest_id")));
+    // indexed along the way
+    Assert.assertEquals("1", new String(readSynced(indexEntryPath("legacy", "sc2"))));
+    Assert.assertEquals(0, readSynced(subjectPath + "/fingerprints").length);
+  }
+
+  @Test
+  public void testFingerprintIndex() throws Exception {
+    Subject subject = repo.register("indexed", null);
+    subject.register("sc1");
+    subject.register("sc2");
+    Assert.assertEquals("0", new String(readSynced(indexEntryPath("indexed", "sc1"))));
+    Assert.assertEquals("1", new String(readSynced(indexEntryPath("indexed", "sc2"))));
+
+    // as if sc3 had the same fingerprint as sc1
+    zkClient.create().forPath(indexEntryPath("indexed", "sc3"), "0".getBytes());
+    repo.close();
+    repo = createRepository();
+    subject = repo.lookup("indexed");
+    Assert.assertNull(subject.lookupBySchema("sc3"));
+    Assert.assertEquals(new SchemaEntry("2", "sc3"), subject.register("sc3"));
+    Assert.assertEquals("0\n2", new String(readSynced(indexEntryPath("indexed", "sc3"))));
+    Assert.assertEquals(new SchemaEntry("2", "sc3"), subject.lookupBySchema("sc3"));
+    Assert.assertEquals(new SchemaEntry("1", "sc2"), subject.lookupBySchema("sc2"));
+  }
+
+  @Test
+  public void testAllEntriesFromAnotherInstance() throws Exception {
+    Subject subject = repo.register("history", null);
+    for (int i = 0; i < 50; i++) {
+      subject.register("sc" + i);
+    }
+
+    ZooKeeperRepository other = newRepo();
+    try {
+      List<SchemaEntry> entries = new ArrayList<SchemaEntry>();
+      for (SchemaEntry entry : other.lookup("history").allEntries()) {
+        entries.add(entry);
+      }
+      Assert.assertEquals(50, entries.size());
+      for (int i = 0; i < 50; i++) {
+        Assert.assertEquals(new SchemaEntry(String.valueOf(49 - i), "sc" + (49 - i)), entries.get(i));
+      }
+    } finally {
+      other.close();
+    }
+  }
+
+  private static String indexEntryPath(String subject, String schema) {
+    return REPO_PATH + "/" + subject + "/fingerprints/"
+        + String.format("%016x", RepositoryUtil.fingerprint64(schema));
+  }
+
+  @Test
+  public void testSubjectLocks() throws Exception {
+    repo.close();
+    repo = newRepo(settings(Config.ZK_LOCK_TIMEOUT, "200"));
+    Subject locked = repo.register("locked", null);
+    Subject free = repo.register("free", null);
+
+    // as if another instance were registering a schema in the subject
+    InterProcessSemaphoreMutex lock = new InterProcessSemaphoreMutex(zkClient, REPO_PATH + "/.locks/locked");
+    lock.acquire();
+    try {
+      if (isOptimisticRegistration()) {
+        // registrations do not take locks
+        Assert.assertEquals(new SchemaEntry("0", "sc1"), locked.register("sc1"));
+      } else {
+        try {
+          locked.register("sc1");
+          Assert.fail("The lock of the subject should have timed out");
+        } catch (IllegalStateException e) {
+          // expected
+        }
+      }
+      // other subjects are not held up
+      Assert.assertEquals(new SchemaEntry("0", "sc1"), free.register("sc1"));
+    } finally {
+      lock.release();
+    }
+    Assert.assertEquals(new SchemaEntry("0", "sc1"), locked.register("sc1"));
+
+    Map<String, String> statistics = repo.exposeStatistics();
+    if (isOptimisticRegistration()) {
+      // only both subject creations
+      Assert.assertEquals("0", statistics.get("zookeeper.lock.timeouts"));
+      Assert.assertEquals("2", statistics.get("zookeeper.lock.acquisitions"));
+    } else {
+      Assert.assertEquals("1", statistics.get("zookeeper.lock.timeouts"));
+      // both subject creations and both successful registrations
+      Assert.assertEquals("4", statistics.get("zookeeper.lock.acquisitions"));
+      Assert.assertTrue(Long.parseLong(statistics.get("zookeeper.lock.wait-ms.max")) >= 200);
+    }
+    Assert.assertEquals(2, size(repo.subjects()));
+  }
+
+  @Test
+  public void testPersistentConflictsEnd() throws Exception {
+    repo.close();
+    repo = newRepo(settings(Config.ZK_LOCK_TIMEOUT, "200"));
+    Subject subject = repo.register("stale", null);
+    subject.register("sc1");
+    // as if left by an instance which did not update latest_id
+    zkClient.create().forPath(REPO_PATH + "/stale/1.schema", "left behind".getBytes());
+    long start = System.currentTimeMillis();
+    try {
+      subject.register("sc2");
+      Assert.fail("Registered a schema under the id of another one");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+    Assert.assertTrue(Long.parseLong(repo.exposeStatistics().get("zookeeper.registration.conflicts")) > 1);
+  }
+
+  @Test
+  public void testConcurrentRegistrations() throws Exception {
+    repo.register("concurrent", null);
+    final ZooKeeperRepository other = newRepo();
+    final int threads = 4;
+    final int schemasPerThread = 10;
+    final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> registrants = new ArrayList<Thread>();
+    try {
+      for (int t = 0; t < threads; t++) {
+        final Subject subject = (t % 2 == 0 ? repo : other).lookup("concurrent");
+        final int thread = t;
+        registrants.add(new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < schemasPerThread; i++) {
+                ids.add(subject.register("sc" + thread + "_" + i).getId());
+              }
+            } catch (Throwable e) {
+              failures.add(e);
+            }
+          }
+        }));
+      }
+      for (Thread registrant : registrants) {
+        registrant.start();
+      }
+      for (Thread registrant : registrants) {
+        registrant.join();
+      }
+    } finally {
+      other.close();
+    }
+    Assert.assertEquals(Collections.emptyList(), failures);
+    Assert.assertEquals(threads * schemasPerThread, new HashSet<String>(ids).size());
+    Assert.assertEquals(String.valueOf(threads * schemasPerThread - 1),
+        new String(zkClient.getData().forPath(REPO_PATH + "/concurrent/latest_id")));
+  }
+
+  private static int size(Iterable<?> iterable) {
+    int size = 0;
+    for (Object ignored : iterable) {
+      size++;
+    }
+    return size;
+  }
 }